@@ -0,0 +1,68 @@
+package edu.cmu.jacoco;
+
+import edu.cmu.jacoco.async.Analyzer;
+import edu.cmu.jacoco.async.CoverageBuilder;
+import org.jacoco.core.analysis.IBundleCoverage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Analysis of all fixture classes, either as a class directory or as one jar.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AnalysisBenchmark {
+
+    @Param("1000")
+    public int classes;
+
+    @Param({"directory", "jar"})
+    public String layout;
+
+    private BenchmarkFixture fixture;
+    private File path;
+    private Scheduler scheduler;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixture = new BenchmarkFixture(classes, 0.5, 1);
+        path = layout.equals("jar") ? fixture.jar : fixture.classes;
+        int processors = Runtime.getRuntime().availableProcessors();
+        scheduler = new Scheduler(processors, processors);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        scheduler.close();
+        fixture.close();
+    }
+
+    /**
+     * All three suites on all processors, as a comparison run does it.
+     */
+    @Benchmark
+    public List<IBundleCoverage> coverageAnalyzer() {
+        return new CoverageAnalyzer(Collections.singletonList(path), scheduler)
+                .analyze(Arrays.asList(fixture.first, fixture.second, fixture.union));
+    }
+
+    /**
+     * One suite on the calling thread.
+     */
+    @Benchmark
+    public CoverageBuilder analyzeAll() throws IOException {
+        CoverageBuilder coverageBuilder = new CoverageBuilder();
+        new Analyzer(fixture.first, coverageBuilder).analyzeAll(path);
+        return coverageBuilder;
+    }
+}
@@ -0,0 +1,197 @@
+package edu.cmu.jacoco;
+
+import edu.cmu.jacoco.async.ClassStructure;
+import edu.cmu.jacoco.async.ClassStructureAnalyzer;
+import edu.cmu.jacoco.async.StringPool;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.internal.Java9Support;
+import org.jacoco.core.internal.data.CRC64;
+import org.jacoco.core.internal.flow.ClassProbesAdapter;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+/**
+ * Classes, sources and execution data of two suites for the benchmarks. The classes are taken from the jars on the
+ * class path; when more classes are asked for than there are, the jars are copied again into renamed packages. Every
+ * class gets a generated source file as long as its last line, and random probes in both suites.
+ */
+class BenchmarkFixture implements Closeable {
+
+    final File directory;
+    final File classes;
+    final File jar;
+    final File sources;
+    final ExecutionDataStore first = new ExecutionDataStore();
+    final ExecutionDataStore second = new ExecutionDataStore();
+    final ExecutionDataStore union = new ExecutionDataStore();
+
+    private final Map<String, Integer> sourceLines = new TreeMap<>();
+
+    /**
+     * @param classCount number of classes
+     * @param coverage   probability of a probe to be hit in each suite
+     */
+    BenchmarkFixture(int classCount, double coverage, long seed) throws IOException {
+        directory = Files.createTempDirectory("jacoco-comparison-bench").toFile();
+        classes = new File(directory, "classes");
+        jar = new File(directory, "classes.jar");
+        sources = new File(directory, "sources");
+
+        Map<String, byte[]> corpus = readClassPath();
+        Random random = new Random(seed);
+        try (JarOutputStream jarOutput = new JarOutputStream(new FileOutputStream(jar))) {
+            int count = 0;
+            for (int copy = 0; count < classCount; copy++) {
+                if (corpus.isEmpty()) {
+                    throw new IllegalStateException("No classes on the class path");
+                }
+                for (Map.Entry<String, byte[]> entry : corpus.entrySet()) {
+                    if (count == classCount) {
+                        break;
+                    }
+                    String prefix = copy == 0 ? "" : "copy" + copy + "/";
+                    if (add(prefix + entry.getKey(), entry.getValue(), corpus.keySet(), prefix, jarOutput, coverage, random)) {
+                        count++;
+                    }
+                }
+            }
+        }
+        writeSources();
+    }
+
+    private boolean add(
+            String name,
+            byte[] original,
+            Set<String> names,
+            String prefix,
+            JarOutputStream jarOutput,
+            double coverage,
+            Random random
+    ) throws IOException {
+        byte[] bytes;
+        ClassStructure structure;
+        long id;
+        try {
+            bytes = prefix.isEmpty() ? original : rename(original, names, prefix);
+            byte[] definition = Java9Support.downgradeIfRequired(bytes);
+            id = CRC64.checksum(definition);
+            ClassStructureAnalyzer analyzer = new ClassStructureAnalyzer(id, name, new StringPool());
+            new ClassReader(definition).accept(new ClassProbesAdapter(analyzer, false), 0);
+            structure = analyzer.getStructure();
+        } catch (RuntimeException e) {
+            // not supported by this version of ASM or JaCoCo
+            return false;
+        }
+
+        File file = new File(classes, name + ".class");
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), bytes);
+        jarOutput.putNextEntry(new JarEntry(name + ".class"));
+        jarOutput.write(bytes);
+        jarOutput.closeEntry();
+
+        boolean[] firstProbes = new boolean[structure.getProbeCount()];
+        boolean[] secondProbes = new boolean[structure.getProbeCount()];
+        boolean[] unionProbes = new boolean[structure.getProbeCount()];
+        for (int i = 0; i < firstProbes.length; i++) {
+            firstProbes[i] = random.nextDouble() < coverage;
+            secondProbes[i] = random.nextDouble() < coverage;
+            unionProbes[i] = firstProbes[i] || secondProbes[i];
+        }
+        first.put(new ExecutionData(id, name, firstProbes));
+        second.put(new ExecutionData(id, name, secondProbes));
+        union.put(new ExecutionData(id, name, unionProbes));
+
+        int lastLine = structure.getCoverage(null, false).getLastLine();
+        int separator = name.lastIndexOf('/');
+        String source = name.substring(0, separator + 1) + SourceIndex.getSourceFileName(name.substring(separator + 1));
+        sourceLines.merge(source, Math.max(lastLine, 1), Math::max);
+        return true;
+    }
+
+    private void writeSources() throws IOException {
+        for (Map.Entry<String, Integer> entry : sourceLines.entrySet()) {
+            File file = new File(sources, entry.getKey());
+            Files.createDirectories(file.getParentFile().toPath());
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+                for (int line = 1; line <= entry.getValue() + 1; line++) {
+                    writer.write(sourceLine(line));
+                    writer.write('\n');
+                }
+            }
+        }
+    }
+
+    private static String sourceLine(int line) {
+        switch (line % 5) {
+            case 0:
+                return "        // line " + line + " compares a < b && b > c";
+            case 1:
+                return "        if (value > " + line + ") {";
+            case 2:
+                return "            list.add(\"item <" + line + ">\");";
+            case 3:
+                return "        }";
+            default:
+                return "        return Math.max(value, " + line + "L) * 0x1F;";
+        }
+    }
+
+    private static byte[] rename(byte[] bytes, Set<String> names, String prefix) {
+        ClassReader reader = new ClassReader(bytes);
+        ClassWriter writer = new ClassWriter(0);
+        reader.accept(new ClassRemapper(writer, new Remapper() {
+            @Override
+            public String map(String typeName) {
+                return names.contains(typeName) ? prefix + typeName : typeName;
+            }
+        }), 0);
+        return writer.toByteArray();
+    }
+
+    /**
+     * @return the class files of all jars on the class path by their VM name, in a stable order
+     */
+    private static Map<String, byte[]> readClassPath() throws IOException {
+        Map<String, byte[]> classes = new TreeMap<>();
+        for (String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (!path.endsWith(".jar")) {
+                continue;
+            }
+            try (JarFile jarFile = new JarFile(path)) {
+                Enumeration<JarEntry> entries = jarFile.entries();
+                while (entries.hasMoreElements()) {
+                    JarEntry entry = entries.nextElement();
+                    String name = entry.getName();
+                    if (!name.endsWith(".class") || name.contains("-") || name.startsWith("META-INF/")) {
+                        continue;
+                    }
+                    try (InputStream input = jarFile.getInputStream(entry)) {
+                        classes.putIfAbsent(name.substring(0, name.length() - ".class".length()),
+                                Java9Support.readFully(input));
+                    }
+                }
+            }
+        }
+        return classes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package edu.cmu.jacoco;
+
+import edu.cmu.jacoco.async.Analyzer;
+import edu.cmu.jacoco.async.CoverageBuilder;
+import org.jacoco.core.analysis.IClassCoverage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collecting the coverage of all fixture classes into a builder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CoverageBuilderBenchmark {
+
+    @Param("1000")
+    public int classes;
+
+    private final List<IClassCoverage> coverage = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws IOException {
+        try (BenchmarkFixture fixture = new BenchmarkFixture(classes, 0.5, 1)) {
+            new Analyzer(fixture.first, coverage::add).analyzeAll(fixture.classes);
+        }
+    }
+
+    @Benchmark
+    public CoverageBuilder visitCoverage() {
+        CoverageBuilder coverageBuilder = new CoverageBuilder();
+        for (IClassCoverage classCoverage : coverage) {
+            coverageBuilder.visitCoverage(classCoverage);
+        }
+        return coverageBuilder;
+    }
+}
@@ -0,0 +1,68 @@
+package edu.cmu.jacoco;
+
+import edu.cmu.jacoco.async.Analyzer;
+import edu.cmu.jacoco.async.CoverageBuilder;
+import org.jacoco.core.analysis.IBundleCoverage;
+import org.jacoco.core.analysis.IClassCoverage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collecting the coverage of all fixture classes into one builder from a growing number of threads, up to the bundle.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CoverageBuilderScalingBenchmark {
+
+    @Param("5000")
+    public int classes;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private final List<IClassCoverage> coverage = new ArrayList<>();
+    private ExecutorService executorService;
+
+    @Setup
+    public void setUp() throws IOException {
+        try (BenchmarkFixture fixture = new BenchmarkFixture(classes, 0.5, 1)) {
+            new Analyzer(fixture.first, coverage::add).analyzeAll(fixture.classes);
+        }
+        executorService = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executorService.shutdown();
+    }
+
+    @Benchmark
+    public IBundleCoverage visitCoverage() throws ExecutionException, InterruptedException {
+        CoverageBuilder coverageBuilder = new CoverageBuilder();
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int thread = 0; thread < threads; thread++) {
+            int first = thread;
+            tasks.add(executorService.submit(() -> {
+                for (int i = first; i < coverage.size(); i += threads) {
+                    coverageBuilder.visitCoverage(coverage.get(i));
+                }
+            }));
+        }
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        return coverageBuilder.getBundle("scaling");
+    }
+}
@@ -0,0 +1,93 @@
+package edu.cmu.jacoco;
+
+import org.jacoco.core.analysis.ICounter;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Compares the retained heap of the line model used before {@link LineCoverage} (nested hash maps with boxed line
+ * numbers and statuses) with {@link LineCoverage} for the same synthetic lines.
+ *
+ * Usage: LineCoverageFootprint [classes] [lines per class] [classes per package]
+ */
+public class LineCoverageFootprint {
+
+    public static void main(String[] args) {
+        int classes = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int lines = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int classesPerPackage = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+        System.out.println("Classes: " + classes + ", lines per class: " + lines);
+
+        long maps = measure(() -> buildMaps(classes, lines, classesPerPackage));
+        long compact = measure(() -> buildLineCoverage(classes, lines, classesPerPackage));
+
+        System.out.printf("Nested maps:   %,d bytes (%.1f per line)%n", maps, (double) maps / classes / lines);
+        System.out.printf("LineCoverage:  %,d bytes (%.1f per line)%n", compact, (double) compact / classes / lines);
+    }
+
+    private static HashMap<String, HashMap<String, HashMap<Integer, Integer>>> buildMaps(
+            int classes, int lines, int classesPerPackage
+    ) {
+        Random random = new Random(0);
+        HashMap<String, HashMap<String, HashMap<Integer, Integer>>> info = new HashMap<>();
+        for (int c = 0; c < classes; c++) {
+            HashMap<Integer, Integer> classLines = info
+                    .computeIfAbsent(packageName(c, classesPerPackage), k -> new HashMap<>())
+                    .computeIfAbsent(className(c), k -> new HashMap<>());
+            for (int line = 1; line <= lines; line++) {
+                int status = status(random);
+                if (status != ICounter.EMPTY) {
+                    classLines.put(line, status);
+                }
+            }
+        }
+        return info;
+    }
+
+    private static LineCoverage buildLineCoverage(int classes, int lines, int classesPerPackage) {
+        Random random = new Random(0);
+        LineCoverage info = new LineCoverage();
+        int[] statuses = new int[lines];
+        for (int c = 0; c < classes; c++) {
+            for (int line = 0; line < lines; line++) {
+                statuses[line] = status(random);
+            }
+            info.add(packageName(c, classesPerPackage), className(c), 1, statuses);
+        }
+        return info;
+    }
+
+    private static String packageName(int c, int classesPerPackage) {
+        return "com.example.module" + (c / classesPerPackage);
+    }
+
+    private static String className(int c) {
+        return "Class" + c;
+    }
+
+    private static int status(Random random) {
+        int value = random.nextInt(10);
+        return value < 6 ? ICounter.FULLY_COVERED : value < 8 ? ICounter.PARTLY_COVERED : ICounter.EMPTY;
+    }
+
+    private static long measure(Supplier<Object> factory) {
+        long before = usedHeap();
+        Object model = factory.get();
+        long after = usedHeap();
+        if (model.hashCode() == 42) {
+            System.out.println(); // keeps the model reachable until it has been measured
+        }
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
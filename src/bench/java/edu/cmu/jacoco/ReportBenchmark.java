@@ -0,0 +1,82 @@
+package edu.cmu.jacoco;
+
+import org.jacoco.core.analysis.IBundleCoverage;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The steps from the coverage of two suites to the report.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReportBenchmark {
+
+    @Param("1000")
+    public int classes;
+
+    @Param("1")
+    public int threads;
+
+    private BenchmarkFixture fixture;
+    private IBundleCoverage base;
+    private IBundleCoverage candidate;
+    private SourceIndex sources;
+    private File report;
+    private Scheduler scheduler;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixture = new BenchmarkFixture(classes, 0.5, 1);
+        int processors = Runtime.getRuntime().availableProcessors();
+        scheduler = new Scheduler(processors, threads);
+        List<IBundleCoverage> coverage = new CoverageAnalyzer(Collections.singletonList(fixture.classes), scheduler)
+                .analyze(Arrays.asList(fixture.first, fixture.second));
+        base = coverage.get(0);
+        candidate = coverage.get(1);
+        sources = new SourceIndex(Collections.singletonList(fixture.sources), scheduler);
+        report = new File(fixture.directory, "report");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        scheduler.close();
+        fixture.close();
+    }
+
+    /**
+     * The line model of one suite, what Runner.getInfo used to build.
+     */
+    @Benchmark
+    public LineCoverage lineCoverage() {
+        return LineCoverage.from(base);
+    }
+
+    /**
+     * The differences between both suites, what NewReportGenerator.getDifference used to calculate.
+     */
+    @Benchmark
+    public void difference(Blackhole blackhole) {
+        new DifferenceCalculator().calculate(base, candidate, blackhole::consume);
+    }
+
+    /**
+     * The whole report with the index and every class page.
+     */
+    @Benchmark
+    public void report() {
+        // without the manifest every page is written again
+        new File(report, ReportManifest.FILE_NAME).delete();
+        new NewReportGenerator(report, sources, scheduler).generateReport(base, candidate);
+    }
+}
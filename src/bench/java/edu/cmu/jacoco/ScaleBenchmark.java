@@ -0,0 +1,139 @@
+package edu.cmu.jacoco;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Runs the whole comparison on synthetic projects of growing size and prints the wall time of every phase and the
+ * peak resident set size of the run. Every run happens in a JVM of its own so that the peak memory of one run doesn't
+ * hide the one of the next. The phases are measured by the time the progress lines of the Runner arrive.
+ *
+ * Usage: ScaleBenchmark [classes, coma separated] [JVM options of the runs...]
+ */
+public class ScaleBenchmark {
+
+    private static final String PREFIX = "[Jacoco comparison tool] ";
+    private static final String PEAK_RSS = "[scale] VmHWM:";
+
+    /**
+     * Progress lines of the Runner and the phase that ends with each of them.
+     */
+    private static final String[][] PHASES = {
+            {"Start", "startup"},
+            {"Classes", "load"},
+            {"Stop analyze coverage", "analyze"},
+            {"Pages", "report"},
+            {"Stop", "finish"},
+    };
+
+    public static void main(String[] args) throws Exception {
+        String[] scales = (args.length > 0 ? args[0] : "1000,10000,100000").split(",");
+        List<String> jvmOptions = Arrays.asList(args).subList(Math.min(1, args.length), args.length);
+
+        System.out.printf("%10s %10s %10s %10s %10s %10s %10s %12s%n",
+                "classes", "generate", "startup", "load", "analyze", "report", "total", "peak RSS");
+        for (String scale : scales) {
+            int classes = Integer.parseInt(scale.trim());
+            File directory = Files.createTempDirectory("jacoco-comparison-scale").toFile();
+            try {
+                long start = System.nanoTime();
+                new SyntheticProject(8).write(directory, classes, 2, 0.6, 0.8, 1);
+                long generate = System.nanoTime() - start;
+
+                Map<String, Long> phases = new HashMap<>();
+                String peakRss = run(directory, jvmOptions, phases);
+
+                System.out.printf("%10d %10s %10s %10s %10s %10s %10s %12s%n", classes, millis(generate),
+                        millis(phases.get("startup")), millis(phases.get("load")), millis(phases.get("analyze")),
+                        millis(phases.get("report")), millis(phases.get("total")), peakRss);
+            } finally {
+                delete(directory);
+            }
+        }
+    }
+
+    private static String run(File directory, List<String> jvmOptions, Map<String, Long> phases)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Child.class.getName());
+        command.addAll(Arrays.asList(
+                "--classes", new File(directory, "classes").getPath(),
+                "--sources", new File(directory, "src").getPath(),
+                "--report", new File(directory, "report").getPath(),
+                "--first", new File(directory, "suite0.exec").getPath(),
+                "--second", new File(directory, "suite1.exec").getPath(),
+                "--titles", "first,second"
+        ));
+
+        long start = System.nanoTime();
+        long previous = start;
+        String peakRss = "n/a";
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = output.readLine()) != null) {
+                long now = System.nanoTime();
+                if (line.startsWith(PEAK_RSS)) {
+                    peakRss = line.substring(PEAK_RSS.length()).trim();
+                } else if (line.startsWith(PREFIX)) {
+                    String phase = getPhase(line.substring(PREFIX.length()));
+                    if (phase != null) {
+                        phases.put(phase, now - previous);
+                        previous = now;
+                    }
+                } else {
+                    System.out.println(line);
+                }
+            }
+        }
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException("The comparison failed with exit code " + process.exitValue());
+        }
+        phases.put("total", System.nanoTime() - start);
+        return peakRss;
+    }
+
+    private static String getPhase(String message) {
+        for (String[] phase : PHASES) {
+            if (message.startsWith(phase[0] + ":")) {
+                return phase[1];
+            }
+        }
+        return null;
+    }
+
+    private static String millis(Long nanos) {
+        return nanos == null ? "-" : nanos / 1000000 + " ms";
+    }
+
+    private static void delete(File directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /**
+     * Runs the comparison and reports the peak resident set size of its JVM, as far as the OS tells it.
+     */
+    public static class Child {
+
+        public static void main(String[] args) throws Exception {
+            Runner.main(args);
+            File status = new File("/proc/self/status");
+            if (status.isFile()) {
+                for (String line : Files.readAllLines(status.toPath())) {
+                    if (line.startsWith("VmHWM:")) {
+                        System.out.println(PEAK_RSS + " " + line.substring("VmHWM:".length()).trim());
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package edu.cmu.jacoco;
+
+import edu.cmu.jacoco.async.StringPool;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups of equal but not identical strings in one pool shared by all benchmark threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(4)
+public class StringPoolBenchmark {
+
+    @Param("10000")
+    public int distinct;
+
+    private StringPool pool;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        pool = new StringPool();
+    }
+
+    @State(Scope.Thread)
+    public static class Names {
+        String[] names;
+        int next;
+
+        @Setup
+        public void setUp(StringPoolBenchmark benchmark) {
+            names = new String[benchmark.distinct];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = new String("org/example/module" + i % 97 + "/Class" + i);
+            }
+        }
+    }
+
+    @Benchmark
+    public String get(Names names) {
+        String name = names.names[names.next];
+        names.next = names.next + 1 == names.names.length ? 0 : names.next + 1;
+        return pool.get(name);
+    }
+
+    @Benchmark
+    public String[] getArray(Names names) {
+        String[] array = {names.names[names.next], names.names[names.names.length - 1 - names.next]};
+        names.next = names.next + 1 == names.names.length ? 0 : names.next + 1;
+        return pool.get(array);
+    }
+}
@@ -0,0 +1,259 @@
+package edu.cmu.jacoco;
+
+import edu.cmu.jacoco.async.ClassStructureAnalyzer;
+import edu.cmu.jacoco.async.StringPool;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.jacoco.core.data.SessionInfo;
+import org.jacoco.core.internal.data.CRC64;
+import org.jacoco.core.internal.flow.ClassProbesAdapter;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Writes a project of synthetic classes, emitted with ASM, together with their sources and the execution data of
+ * several suites, in the same format the JaCoCo agent writes. Every line number in the classes matches a line of code
+ * in the sources.
+ *
+ * Usage: SyntheticProject directory classes [suites] [coverage] [overlap] [seed]
+ *
+ * The project is written to directory/classes, directory/src and directory/suite0.exec, directory/suite1.exec, ...
+ * Every probe is hit with the probability coverage in each suite. With the probability overlap the decision is taken
+ * once for all suites, otherwise every suite decides on its own, so an overlap of 1 gives identical suites.
+ */
+public class SyntheticProject {
+
+    private static final int CLASSES_PER_PACKAGE = 100;
+
+    private final int methodsPerClass;
+
+    SyntheticProject(int methodsPerClass) {
+        this.methodsPerClass = methodsPerClass;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: SyntheticProject directory classes [suites] [coverage] [overlap] [seed]");
+            System.exit(1);
+        }
+        File directory = new File(args[0]);
+        int classes = Integer.parseInt(args[1]);
+        int suites = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        double coverage = args.length > 3 ? Double.parseDouble(args[3]) : 0.6;
+        double overlap = args.length > 4 ? Double.parseDouble(args[4]) : 0.8;
+        long seed = args.length > 5 ? Long.parseLong(args[5]) : 1;
+
+        List<File> execFiles = new SyntheticProject(8).write(directory, classes, suites, coverage, overlap, seed);
+        System.out.println("Wrote " + classes + " classes and " + execFiles.size() + " suites to " + directory);
+    }
+
+    /**
+     * @return the execution data file of every suite
+     */
+    List<File> write(File directory, int classCount, int suiteCount, double coverage, double overlap, long seed)
+            throws IOException {
+        File classes = new File(directory, "classes");
+        File sources = new File(directory, "src");
+        Random random = new Random(seed);
+
+        List<File> execFiles = new ArrayList<>();
+        List<ExecutionDataWriter> writers = new ArrayList<>();
+        List<OutputStream> outputs = new ArrayList<>();
+        Files.createDirectories(directory.toPath());
+        for (int suite = 0; suite < suiteCount; suite++) {
+            File execFile = new File(directory, "suite" + suite + ".exec");
+            OutputStream output = new BufferedOutputStream(new FileOutputStream(execFile));
+            ExecutionDataWriter writer = new ExecutionDataWriter(output);
+            writer.visitSessionInfo(new SessionInfo("suite" + suite, 0, 0));
+            execFiles.add(execFile);
+            outputs.add(output);
+            writers.add(writer);
+        }
+
+        try {
+            for (int i = 0; i < classCount; i++) {
+                String packageName = "gen/p" + i / CLASSES_PER_PACKAGE;
+                String className = packageName + "/C" + i;
+
+                byte[] bytes = generateClass(className);
+                File classFile = new File(classes, className + ".class");
+                Files.createDirectories(classFile.getParentFile().toPath());
+                Files.write(classFile.toPath(), bytes);
+
+                File sourceFile = new File(sources, className + ".java");
+                Files.createDirectories(sourceFile.getParentFile().toPath());
+                Files.write(sourceFile.toPath(), generateSource(className).getBytes("UTF-8"));
+
+                long id = CRC64.checksum(bytes);
+                int probeCount = getProbeCount(id, className, bytes);
+                boolean[][] probes = new boolean[suiteCount][probeCount];
+                for (int probe = 0; probe < probeCount; probe++) {
+                    boolean shared = random.nextDouble() < coverage;
+                    boolean sharedDecision = random.nextDouble() < overlap;
+                    for (int suite = 0; suite < suiteCount; suite++) {
+                        probes[suite][probe] = sharedDecision ? shared : random.nextDouble() < coverage;
+                    }
+                }
+                for (int suite = 0; suite < suiteCount; suite++) {
+                    writers.get(suite).visitClassExecution(new ExecutionData(id, className, probes[suite]));
+                }
+            }
+        } finally {
+            for (OutputStream output : outputs) {
+                output.close();
+            }
+        }
+        return execFiles;
+    }
+
+    private static int getProbeCount(long id, String className, byte[] bytes) {
+        ClassStructureAnalyzer analyzer = new ClassStructureAnalyzer(id, className, new StringPool());
+        new ClassReader(bytes).accept(new ClassProbesAdapter(analyzer, false), 0);
+        return analyzer.getStructure().getProbeCount();
+    }
+
+    /**
+     * Line of the first method, the lines before hold the package and the class declaration.
+     */
+    private static final int FIRST_METHOD_LINE = 5;
+
+    /**
+     * Lines of every method including the empty line after it.
+     */
+    private static final int METHOD_LINES = 10;
+
+    byte[] generateClass(String className) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        writer.visit(V1_8, ACC_PUBLIC | ACC_SUPER, className, null, "java/lang/Object", null);
+        writer.visitSource(className.substring(className.lastIndexOf('/') + 1) + ".java", null);
+
+        MethodVisitor constructor = writer.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        constructor.visitCode();
+        line(constructor, 3);
+        constructor.visitVarInsn(ALOAD, 0);
+        constructor.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        constructor.visitInsn(RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+
+        for (int method = 0; method < methodsPerClass; method++) {
+            MethodVisitor visitor = writer.visitMethod(ACC_PUBLIC, "m" + method, "(I)I", null, null);
+            visitor.visitCode();
+            int first = FIRST_METHOD_LINE + method * METHOD_LINES;
+            if (method % 2 == 0) {
+                generateBranch(visitor, first, method);
+            } else {
+                generateLoop(visitor, first, method);
+            }
+            visitor.visitMaxs(0, 0);
+            visitor.visitEnd();
+        }
+
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static void generateBranch(MethodVisitor visitor, int first, int constant) {
+        Label otherwise = new Label();
+        Label end = new Label();
+        line(visitor, first + 1);
+        visitor.visitVarInsn(ILOAD, 1);
+        visitor.visitLdcInsn(31);
+        visitor.visitInsn(IMUL);
+        visitor.visitVarInsn(ISTORE, 2);
+        line(visitor, first + 2);
+        visitor.visitVarInsn(ILOAD, 1);
+        visitor.visitLdcInsn(constant);
+        visitor.visitJumpInsn(IF_ICMPLE, otherwise);
+        line(visitor, first + 3);
+        visitor.visitIincInsn(2, constant);
+        visitor.visitJumpInsn(GOTO, end);
+        visitor.visitLabel(otherwise);
+        visitor.visitLineNumber(first + 5, otherwise);
+        visitor.visitIincInsn(2, -constant);
+        visitor.visitLabel(end);
+        visitor.visitLineNumber(first + 7, end);
+        visitor.visitVarInsn(ILOAD, 2);
+        visitor.visitInsn(IRETURN);
+    }
+
+    private static void generateLoop(MethodVisitor visitor, int first, int constant) {
+        Label body = new Label();
+        Label condition = new Label();
+        line(visitor, first + 1);
+        visitor.visitInsn(ICONST_0);
+        visitor.visitVarInsn(ISTORE, 2);
+        line(visitor, first + 2);
+        visitor.visitInsn(ICONST_0);
+        visitor.visitVarInsn(ISTORE, 3);
+        visitor.visitJumpInsn(GOTO, condition);
+        visitor.visitLabel(body);
+        visitor.visitLineNumber(first + 3, body);
+        visitor.visitVarInsn(ILOAD, 2);
+        visitor.visitVarInsn(ILOAD, 3);
+        visitor.visitLdcInsn(constant);
+        visitor.visitInsn(IMUL);
+        visitor.visitInsn(IADD);
+        visitor.visitVarInsn(ISTORE, 2);
+        line(visitor, first + 2);
+        visitor.visitIincInsn(3, 1);
+        visitor.visitLabel(condition);
+        visitor.visitVarInsn(ILOAD, 3);
+        visitor.visitVarInsn(ILOAD, 1);
+        visitor.visitJumpInsn(IF_ICMPLT, body);
+        line(visitor, first + 5);
+        visitor.visitVarInsn(ILOAD, 2);
+        visitor.visitInsn(IRETURN);
+    }
+
+    private static void line(MethodVisitor visitor, int line) {
+        Label label = new Label();
+        visitor.visitLabel(label);
+        visitor.visitLineNumber(line, label);
+    }
+
+    String generateSource(String className) {
+        int separator = className.lastIndexOf('/');
+        StringBuilder source = new StringBuilder();
+        source.append("package ").append(className.substring(0, separator).replace('/', '.')).append(";\n");
+        source.append("\n");
+        source.append("public class ").append(className.substring(separator + 1)).append(" {\n");
+        source.append("\n");
+        for (int method = 0; method < methodsPerClass; method++) {
+            source.append("    public int m").append(method).append("(int x) {\n");
+            if (method % 2 == 0) {
+                source.append("        int y = x * 31;\n");
+                source.append("        if (x > ").append(method).append(") {\n");
+                source.append("            y += ").append(method).append(";\n");
+                source.append("        } else {\n");
+                source.append("            y -= ").append(method).append(";\n");
+                source.append("        }\n");
+                source.append("        return y;\n");
+                source.append("    }\n");
+                source.append("\n");
+            } else {
+                source.append("        int y = 0;\n");
+                source.append("        for (int i = 0; i < x; i++) {\n");
+                source.append("            y += i * ").append(method).append(";\n");
+                source.append("        }\n");
+                source.append("        return y;\n");
+                source.append("    }\n");
+                source.append("\n");
+                source.append("\n");
+                source.append("\n");
+            }
+        }
+        source.append("}\n");
+        return source.toString();
+    }
+}
@@ -5,7 +5,10 @@ import org.apache.commons.cli.*;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 class ArgumentsExtractor {
 
@@ -15,22 +18,57 @@ class ArgumentsExtractor {
     private static final String ROOT = "root";
     private static final String FIRST = "first";
     private static final String SECOND = "second";
+    private static final String SUITES = "suites";
     private static final String TITLES = "titles";
+    private static final String CACHE = "cache";
+    private static final String CACHE_SIZE = "cache-size";
+    private static final String REPORT_THREADS = "report-threads";
+    private static final String THREADS = "threads";
+    private static final String IO_THREADS = "io-threads";
+    private static final String METRICS = "metrics";
+    private static final String LINES_ONLY = "lines-only";
+    private static final String DAEMON = "daemon";
+    private static final String MEMORY_CACHE_SIZE = "memory-cache-size";
+    private static final String LAYOUT_CACHE = "layout-cache";
+    private static final String TOKEN_FILE = "token-file";
+    private static final String REFRESH = "refresh";
+
+    /**
+     * Options that configure the daemon itself and can't be changed by its requests.
+     */
+    private static final List<String> DAEMON_OPTIONS = Arrays.asList(
+            DAEMON, TOKEN_FILE, CACHE, CACHE_SIZE, MEMORY_CACHE_SIZE, THREADS, IO_THREADS, REPORT_THREADS, METRICS);
+
+    private static final long DEFAULT_CACHE_SIZE = 512;
+    private static final long DEFAULT_MEMORY_CACHE_SIZE = 1024;
 
     private final Options options = new Options();
 
     ArgumentsExtractor() {
         options.addOption(create(SOURCES, "The directory containing the sources files", false));
-        options.addOption(create(REPORT, "The directory that the generated report will be written to"));
+        options.addOption(create(REPORT, "The directory that the generated report will be written to", false));
         options.addOption(create(CLASSES, "The directory containing the classes files", false));
         options.addOption(create(ROOT, "The directory containing the classes files", false));
-        options.addOption(create(FIRST, "The paths to the Jacoco execution files, coma separated"));
-        options.addOption(create(SECOND, "The paths to the Jacoco execution files, coma separated"));
-        options.addOption(create(TITLES, "The titles of the test suites in the coverage report, coma separated"));
-    }
-
-    private Option create(String name, String description) {
-        return create(name, description, true);
+        options.addOption(create(FIRST, "The paths to the Jacoco execution files, coma separated", false));
+        options.addOption(create(SECOND, "The paths to the Jacoco execution files, coma separated", false));
+        options.addOption(create(SUITES, "The test suites to compare with each other, semicolon separated, each of them with its paths to the Jacoco execution files, coma separated", false));
+        options.addOption(create(TITLES, "The titles of the test suites in the coverage report, coma separated", false));
+        options.addOption(create(LAYOUT_CACHE, "The file to keep the class and source directories found below the root in, delete it when modules are added", false));
+        options.addOption(create(CACHE, "The directory to cache the structure of analyzed classes in", false));
+        options.addOption(create(CACHE_SIZE, "The maximum size of the class structure cache in MB, 512 by default", false));
+        options.addOption(create(REPORT_THREADS, "Same as " + IO_THREADS + ", kept for compatibility", false));
+        options.addOption(create(THREADS, "The number of threads analyzing classes, the number of processors by default", false));
+        options.addOption(create(IO_THREADS, "The number of threads reading execution data and writing the class reports, the number of analyzing threads by default, or \"virtual\" for a virtual thread per file on Java 21 and later", false));
+        options.addOption(OptionBuilder.withLongOpt(LINES_ONLY)
+                .withDescription("Only keep the line statuses of the classes instead of their full coverage, to need less memory")
+                .create());
+        options.addOption(OptionBuilder.withLongOpt(REFRESH)
+                .withDescription("In a request to the daemon, find the class and source directories again instead of reusing the ones of earlier requests")
+                .create());
+        options.addOption(create(METRICS, "The file to write the time, CPU time, allocations and counters of every phase to, as JSON", false));
+        options.addOption(create(DAEMON, "Instead of comparing once, keep the analyzed classes and execution data in memory and compare the suites of every request to this local HTTP port", false));
+        options.addOption(create(TOKEN_FILE, "The file with the token the requests to the daemon have to send as \"Authorization: Bearer <token>\", a new token is printed at startup by default", false));
+        options.addOption(create(MEMORY_CACHE_SIZE, "The maximum size of the classes and execution data kept in memory by the daemon in MB, 1024 by default", false));
     }
 
     private Option create(String name, String description, boolean required) {
@@ -42,23 +80,123 @@ class ArgumentsExtractor {
     }
 
     Arguments extractArguments(String[] args) throws ParseException {
-        CommandLineParser parser = new BasicParser();
-        CommandLine line = parser.parse(options, fix(args));
+        return extractArguments(new BasicParser().parse(options, fix(args)));
+    }
+
+    /**
+     * Extracts the arguments of a request to the daemon, which must not contain the options of the daemon itself.
+     */
+    Arguments extractRequestArguments(String[] args) throws ParseException {
+        CommandLine line = new BasicParser().parse(options, fix(args));
+        for (String option : DAEMON_OPTIONS) {
+            if (line.hasOption(option)) {
+                throw new UnrecognizedOptionException("The " + option + " option is fixed when the daemon starts");
+            }
+        }
+        Arguments arguments = extractArguments(line);
+        if (arguments.report == null || arguments.titles.isEmpty() || arguments.suites.isEmpty()) {
+            throw new MissingOptionException("The " + REPORT + ", the " + TITLES + " and the suites are required");
+        }
+        return arguments;
+    }
+
+    private Arguments extractArguments(CommandLine line) throws ParseException {
 
         String sources = line.getOptionValue(SOURCES);
         String classes = line.getOptionValue(CLASSES);
+        int threads = line.hasOption(THREADS)
+                ? parseNumber(line, THREADS) : Runtime.getRuntime().availableProcessors();
+        String ioThreadsOption = line.hasOption(IO_THREADS) ? IO_THREADS : REPORT_THREADS;
+        String ioThreads = line.getOptionValue(ioThreadsOption);
+        int daemon = line.hasOption(DAEMON) ? parseNumber(line, DAEMON) : -1;
+        List<String> titles = line.hasOption(TITLES)
+                ? Arrays.asList(line.getOptionValue(TITLES).split(",")) : Collections.emptyList();
+
+        List<List<String>> suites = new ArrayList<>();
+        boolean allPairs = line.hasOption(SUITES);
+        if (daemon >= 0) {
+            // the suites come with every request
+        } else if (!line.hasOption(REPORT) || !line.hasOption(TITLES)) {
+            throw new MissingOptionException("Both " + REPORT + " and " + TITLES + " are required");
+        } else if (allPairs) {
+            for (String suite : line.getOptionValue(SUITES).split(";")) {
+                suites.add(Arrays.asList(suite.split(",")));
+            }
+            if (suites.size() != titles.size()) {
+                throw new ParseException("Expected a title for each of the " + suites.size() + " suites");
+            }
+            checkDirectories(titles);
+        } else if (line.hasOption(FIRST) && line.hasOption(SECOND)) {
+            suites.add(Arrays.asList(line.getOptionValue(FIRST).split(",")));
+            suites.add(Arrays.asList(line.getOptionValue(SECOND).split(",")));
+        } else {
+            throw new MissingOptionException("Either " + SUITES + " or " + FIRST + " and " + SECOND + " are required");
+        }
 
         return new Arguments(
                 sources == null ? Collections.emptyList() : Arrays.asList(sources.split(",")),
                 classes == null ? Collections.emptyList() : Arrays.asList(classes.split(",")),
                 line.getOptionValue(REPORT),
                 line.getOptionValue(ROOT),
-                Arrays.asList(line.getOptionValue(FIRST).split(",")),
-                Arrays.asList(line.getOptionValue(SECOND).split(",")),
-                Arrays.asList(line.getOptionValue(TITLES).split(","))
+                line.getOptionValue(LAYOUT_CACHE),
+                line.getOptionValue(TOKEN_FILE),
+                suites,
+                allPairs,
+                titles,
+                line.getOptionValue(CACHE),
+                (line.hasOption(CACHE_SIZE) ? (long) parseNumber(line, CACHE_SIZE) : DEFAULT_CACHE_SIZE) * 1024 * 1024,
+                threads,
+                ioThreads == null ? threads
+                        : ioThreads.equals("virtual") ? Scheduler.VIRTUAL : parseNumber(line, ioThreadsOption),
+                line.getOptionValue(METRICS),
+                line.hasOption(LINES_ONLY),
+                line.hasOption(REFRESH),
+                daemon,
+                (line.hasOption(MEMORY_CACHE_SIZE) ? (long) parseNumber(line, MEMORY_CACHE_SIZE) : DEFAULT_MEMORY_CACHE_SIZE)
+                        * 1024 * 1024
         );
     }
 
+    /**
+     * Parses the value of a numeric option, which must not be negative.
+     */
+    private static int parseNumber(CommandLine line, String option) throws ParseException {
+        String value = line.getOptionValue(option);
+        try {
+            int number = Integer.parseInt(value);
+            if (number >= 0) {
+                return number;
+            }
+        } catch (NumberFormatException ignored) {
+            // reported below
+        }
+        throw new ParseException("The " + option + " option expects a number, not \"" + value + "\"");
+    }
+
+    void printUsage() {
+        new HelpFormatter().printHelp("edu.cmu.jacoco.Runner", options, true);
+    }
+
+    /**
+     * Every comparison is written to a directory named after the titles, so titles must not collide once they are
+     * sanitized, not even with the title of the union or when the file system ignores the case.
+     */
+    private static void checkDirectories(List<String> titles) throws ParseException {
+        for (String title : titles) {
+            if (SuiteComparison.sanitize(title).equalsIgnoreCase(SuiteComparison.UNION_TITLE)) {
+                throw new ParseException("The title \"" + title + "\" is reserved for the union of all suites");
+            }
+        }
+        Map<String, SuiteComparison> directories = new HashMap<>();
+        for (SuiteComparison comparison : SuiteComparison.allPairs(titles)) {
+            SuiteComparison other = directories.put(comparison.getDirectory().toLowerCase(Locale.ROOT), comparison);
+            if (other != null) {
+                throw new ParseException("The reports of \"" + other + "\" and \"" + comparison
+                        + "\" would be written to the same directory, please use distinct titles");
+            }
+        }
+    }
+
     private String[] fix(String[] args) {
         List<String> fixedArgs = new ArrayList<String>() {
             @Override
@@ -107,24 +245,57 @@ class ArgumentsExtractor {
         final List<String> classes;
         final String report;
         final String root;
-        final List<String> first;
-        final List<String> second;
+        final String layoutCache;
+        final String tokenFile;
+        final List<List<String>> suites;
+        final boolean allPairs;
         final List<String> titles;
+        final String cache;
+        final long cacheSize;
+        final int threads;
+        final int ioThreads;
+        final String metrics;
+        final boolean linesOnly;
+        final boolean refresh;
+        final int daemon;
+        final long memoryCacheSize;
 
         Arguments(List<String> src,
                   List<String> classes,
                   String report,
                   String root,
-                  List<String> first,
-                  List<String> second,
-                  List<String> titles) {
+                  String layoutCache,
+                  String tokenFile,
+                  List<List<String>> suites,
+                  boolean allPairs,
+                  List<String> titles,
+                  String cache,
+                  long cacheSize,
+                  int threads,
+                  int ioThreads,
+                  String metrics,
+                  boolean linesOnly,
+                  boolean refresh,
+                  int daemon,
+                  long memoryCacheSize) {
             this.sources = src;
             this.classes = classes;
             this.report = report;
             this.root = root;
-            this.first = first;
-            this.second = second;
+            this.layoutCache = layoutCache;
+            this.tokenFile = tokenFile;
+            this.suites = suites;
+            this.allPairs = allPairs;
             this.titles = titles;
+            this.cache = cache;
+            this.cacheSize = cacheSize;
+            this.threads = threads;
+            this.ioThreads = ioThreads;
+            this.metrics = metrics;
+            this.linesOnly = linesOnly;
+            this.refresh = refresh;
+            this.daemon = daemon;
+            this.memoryCacheSize = memoryCacheSize;
         }
     }
 }
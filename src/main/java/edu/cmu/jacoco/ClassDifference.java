@@ -0,0 +1,54 @@
+package edu.cmu.jacoco;
+
+import org.jacoco.core.analysis.ICounter;
+
+/**
+ * Lines of a class the baseline covers but the candidate doesn't cover fully, in ascending order.
+ */
+class ClassDifference {
+
+    private final String packageName;
+    private final String className;
+    private final int[] lines;
+    private final byte[] statuses;
+    private final int partlyCovered;
+
+    ClassDifference(String packageName, String className, int[] lines, byte[] statuses, int partlyCovered) {
+        this.packageName = packageName;
+        this.className = className;
+        this.lines = lines;
+        this.statuses = statuses;
+        this.partlyCovered = partlyCovered;
+    }
+
+    String getPackageName() {
+        return packageName;
+    }
+
+    String getClassName() {
+        return className;
+    }
+
+    int getLineCount() {
+        return lines.length;
+    }
+
+    int getLine(int index) {
+        return lines[index];
+    }
+
+    /**
+     * @return {@link ICounter#PARTLY_COVERED} or {@link ICounter#NOT_COVERED}, the status in the candidate
+     */
+    int getStatus(int index) {
+        return statuses[index];
+    }
+
+    int getPartlyCovered() {
+        return partlyCovered;
+    }
+
+    int getNotCovered() {
+        return lines.length - partlyCovered;
+    }
+}
@@ -4,7 +4,6 @@ import java.io.File;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import org.jacoco.core.analysis.IBundleCoverage;
 import org.jacoco.core.analysis.IClassCoverage;
@@ -15,13 +14,17 @@ import org.jacoco.core.analysis.IPackageCoverage;
 public class CodeDirector {
 	
 	private HTMLHighlighter writer;
-	private List<File> sourceDirectories;
+	private SourceIndex sources;
 	private File outputDirectory;
 	
 	public CodeDirector(List<File> sourceDirectories, File reportDirectory, HTMLHighlighter htmlHighlighter) {
+		this(new SourceIndex(sourceDirectories), reportDirectory, htmlHighlighter);
+	}
+
+	public CodeDirector(SourceIndex sources, File reportDirectory, HTMLHighlighter htmlHighlighter) {
 		this.writer = htmlHighlighter;
 		
-		this.sourceDirectories = sourceDirectories;
+		this.sources = sources;
 
 		this.outputDirectory = reportDirectory;
 	}
@@ -86,11 +89,10 @@ public class CodeDirector {
 		
 		writer.setClassName(className.replaceAll("/", "."));
 
-		List<File> sources = sourceDirectories.stream().map(
-				directory -> new File(directory, className.replaceFirst("\\$[a-zA-Z_0-9]+", ""))
-		).collect(Collectors.toList());
+		String name = bca.getName();
+		File source = sources.find(pkg, name.substring(name.lastIndexOf('/') + 1));
 
-		if (!writer.setSources(sources)) {
+		if (!writer.setSource(source)) {
 			return;
         }
 		writer.setTarget(this.outputDirectory, pkg, className.concat(".html"));		
@@ -0,0 +1,287 @@
+package edu.cmu.jacoco;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.cli.ParseException;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares suites on request and keeps the structures of the analyzed classes, the execution data read and the class
+ * and source directories found in memory in between, so that a request only parses the classes, reads the files and
+ * walks the directories the previous ones didn't. The directories are found again when they changed, or when a
+ * request asks for it with --refresh.
+ *
+ * The daemon listens on the loopback interface only. Every request has to send the token of the daemon as
+ * "Authorization: Bearer &lt;token&gt;", requests with an Origin header come from a browser and are rejected:
+ * <ul>
+ * <li>POST /compare with the arguments of a single run in the body, one per line, e.g. --first, --second, --titles
+ * and --report, responds with the comparisons and the phases of the run as JSON. Requests are compared one at a
+ * time. The options the daemon was started with, like --cache or --threads, can't be changed by a request.</li>
+ * <li>GET /metrics responds with the latencies of the recent requests and the state of the caches as JSON.</li>
+ * </ul>
+ */
+class ComparisonDaemon {
+
+    // number of recent requests the latency percentiles are calculated from
+    private static final int LATENCY_SAMPLES = 1000;
+
+    private static final String BEARER = "Bearer ";
+
+    // number of distinct class and source directory arguments the directories found are kept for
+    private static final int WORKSPACES = 16;
+
+    private final HttpServer server;
+    private final byte[] token;
+    private final ArgumentsExtractor argumentsExtractor = new ArgumentsExtractor();
+    private final Scheduler scheduler;
+    private final MemoryStructureCache structureCache;
+    private final ExecutionDataCache executionDataCache;
+    private final Object comparisonLock = new Object();
+    private final Map<String, Workspace> workspaces = new LinkedHashMap<String, Workspace>(WORKSPACES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Workspace> eldest) {
+            return size() > WORKSPACES;
+        }
+    };
+
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private long requests;
+    private long failures;
+
+    /**
+     * @param token the token every request has to send
+     */
+    ComparisonDaemon(
+            int port,
+            String token,
+            Scheduler scheduler,
+            MemoryStructureCache structureCache,
+            ExecutionDataCache executionDataCache
+    ) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+        this.scheduler = scheduler;
+        this.structureCache = structureCache;
+        this.executionDataCache = executionDataCache;
+        server.createContext("/compare", this::compare);
+        server.createContext("/metrics", this::metrics);
+        // metrics are served while a comparison is running
+        server.setExecutor(Executors.newCachedThreadPool(Metrics.newThreadFactory()));
+    }
+
+    void start() {
+        server.start();
+    }
+
+    /**
+     * @param tokenFile the file to read the token from, or null for a new random token
+     */
+    static String getToken(String tokenFile) throws IOException {
+        if (tokenFile == null) {
+            byte[] bytes = new byte[24];
+            new SecureRandom().nextBytes(bytes);
+            StringBuilder token = new StringBuilder();
+            for (byte b : bytes) {
+                token.append(String.format("%02x", b & 0xff));
+            }
+            return token.toString();
+        }
+        String token = new String(Files.readAllBytes(Paths.get(tokenFile)), StandardCharsets.UTF_8).trim();
+        if (token.isEmpty()) {
+            throw new IOException("The token file " + tokenFile + " is empty");
+        }
+        return token;
+    }
+
+    /**
+     * Responds with an error unless the request carries the token and doesn't come from a web page.
+     */
+    private boolean authorize(HttpExchange exchange) throws IOException {
+        if (exchange.getRequestHeaders().containsKey("Origin")) {
+            respond(exchange, 403, error("Requests from web pages are not accepted"));
+            return false;
+        }
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.startsWith(BEARER) || !MessageDigest.isEqual(token,
+                authorization.substring(BEARER.length()).trim().getBytes(StandardCharsets.UTF_8))) {
+            respond(exchange, 401, error("Missing or wrong token"));
+            return false;
+        }
+        return true;
+    }
+
+    private void compare(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        if (!authorize(exchange)) {
+            return;
+        }
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, error("Expected a POST request"));
+            return;
+        }
+
+        List<String> args = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    args.add(line.trim());
+                }
+            }
+        }
+
+        int status = 200;
+        String response;
+        try {
+            ArgumentsExtractor.Arguments arguments = argumentsExtractor.extractRequestArguments(
+                    args.toArray(new String[0]));
+            synchronized (comparisonLock) {
+                System.out.println("[Jacoco comparison tool] Request: " + String.join(" ", args));
+                Metrics metrics = new Metrics(false);
+                String key = arguments.root + "\n" + arguments.classes + "\n" + arguments.sources;
+                Workspace workspace;
+                try (Metrics.Phase phase = metrics.start("discovery")) {
+                    workspace = Workspace.discover(arguments, scheduler,
+                            arguments.refresh ? null : workspaces.get(key), phase);
+                }
+                workspaces.put(key, workspace);
+                Map<SuiteComparison, NewReportGenerator> reportGenerators = Runner.compare(
+                        arguments, workspace, structureCache, executionDataCache, scheduler, metrics);
+                metrics.close();
+                response = toJson(reportGenerators, metrics);
+            }
+        } catch (ParseException | IllegalArgumentException e) {
+            status = 400;
+            response = error(e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            status = 500;
+            response = error(String.valueOf(e));
+        }
+
+        record(System.nanoTime() - start, status != 200);
+        respond(exchange, status, response);
+    }
+
+    private String toJson(Map<SuiteComparison, NewReportGenerator> reportGenerators, Metrics metrics)
+            throws IOException {
+        StringWriter json = new StringWriter();
+        json.write("{\n  \"comparisons\": [");
+        String separator = "\n";
+        for (Map.Entry<SuiteComparison, NewReportGenerator> reportGenerator : reportGenerators.entrySet()) {
+            ReportManifest manifest = reportGenerator.getValue().getManifest();
+            json.write(separator + "    {\"comparison\": \"" + Metrics.escape(reportGenerator.getKey().toString())
+                    + "\", \"classes\": " + reportGenerator.getValue().getClassCount()
+                    + ", \"pagesWritten\": " + manifest.getWritten()
+                    + ", \"pagesUnchanged\": " + manifest.getUnchanged() + "}");
+            separator = ",\n";
+        }
+        json.write("\n  ],\n  \"metrics\": ");
+        metrics.writeJson(json);
+        json.write("}\n");
+        return json.toString();
+    }
+
+    private void metrics(HttpExchange exchange) throws IOException {
+        if (!authorize(exchange)) {
+            return;
+        }
+        if (!exchange.getRequestMethod().equals("GET")) {
+            respond(exchange, 405, error("Expected a GET request"));
+            return;
+        }
+
+        StringBuilder json = new StringBuilder("{\n");
+        synchronized (this) {
+            int samples = (int) Math.min(requests, LATENCY_SAMPLES);
+            long[] sorted = Arrays.copyOf(latencies, samples);
+            Arrays.sort(sorted);
+            long sum = 0;
+            for (long latency : sorted) {
+                sum += latency;
+            }
+            json.append("  \"requests\": ").append(requests)
+                    .append(",\n  \"failures\": ").append(failures)
+                    .append(",\n  \"latencyMillis\": {\"mean\": ").append(samples == 0 ? 0 : millis(sum / samples))
+                    .append(", \"p50\": ").append(millis(percentile(sorted, 50)))
+                    .append(", \"p95\": ").append(millis(percentile(sorted, 95)))
+                    .append(", \"max\": ").append(millis(samples == 0 ? 0 : sorted[samples - 1]))
+                    .append("}");
+        }
+        json.append(",\n  \"structureCache\": ").append(toJson(structureCache.getStructures()));
+        if (structureCache.getDisk() != null) {
+            json.append(",\n  \"diskStructureCache\": {\"hits\": ").append(structureCache.getDisk().getHits())
+                    .append(", \"misses\": ").append(structureCache.getDisk().getMisses())
+                    .append(", \"evictions\": ").append(structureCache.getDisk().getEvictions())
+                    .append(", \"bytes\": ").append(structureCache.getDisk().getSize())
+                    .append("}");
+        }
+        json.append(",\n  \"executionDataCache\": ").append(toJson(executionDataCache.getStores()));
+        Runtime runtime = Runtime.getRuntime();
+        json.append(",\n  \"heap\": {\"usedBytes\": ").append(runtime.totalMemory() - runtime.freeMemory())
+                .append(", \"maxBytes\": ").append(runtime.maxMemory())
+                .append("}\n}\n");
+        respond(exchange, 200, json.toString());
+    }
+
+    private static String toJson(LruCache<?, ?> cache) {
+        return "{\"entries\": " + cache.size()
+                + ", \"hits\": " + cache.getHits()
+                + ", \"misses\": " + cache.getMisses()
+                + ", \"evictions\": " + cache.getEvictions()
+                + ", \"bytes\": " + cache.getWeight() + "}";
+    }
+
+    private synchronized void record(long latency, boolean failed) {
+        latencies[(int) (requests % LATENCY_SAMPLES)] = latency;
+        requests++;
+        if (failed) {
+            failures++;
+        }
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (sorted.length * percent + 99) / 100 - 1)];
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static String error(String message) {
+        return "{\"error\": \"" + Metrics.escape(String.valueOf(message)) + "\"}\n";
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "listening on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+}
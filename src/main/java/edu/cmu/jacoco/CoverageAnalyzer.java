@@ -3,102 +3,290 @@ package edu.cmu.jacoco;
 import edu.cmu.jacoco.ExecutionDataVisitor.StoreStrategy;
 import edu.cmu.jacoco.async.Analyzer;
 import edu.cmu.jacoco.async.CoverageBuilder;
+import edu.cmu.jacoco.async.ILinesVisitor;
+import edu.cmu.jacoco.async.IStructureCache;
+import edu.cmu.jacoco.async.StringPool;
 import org.jacoco.core.analysis.IBundleCoverage;
-import org.jacoco.core.data.ExecutionDataReader;
+import org.jacoco.core.analysis.ICoverageVisitor;
 import org.jacoco.core.data.ExecutionDataStore;
-import org.jacoco.core.data.IExecutionDataVisitor;
-import org.jacoco.core.data.SessionInfoStore;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.Enumeration;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
+import java.util.function.LongPredicate;
 import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import static java.util.concurrent.CompletableFuture.runAsync;
 
 class CoverageAnalyzer {
 
     private final List<File> classesPath;
-    private ExecutorService executorService;
+    private final Scheduler scheduler;
+    private LongPredicate classFilter = classId -> true;
+    private IStructureCache structureCache;
+    private ExecutionDataCache executionDataCache;
+    private Metrics.Phase phase;
+    private final StringPool stringPool = new StringPool();
 
-    CoverageAnalyzer(List<File> classesPath, ExecutorService executorService) {
+    CoverageAnalyzer(List<File> classesPath, Scheduler scheduler) {
         this.classesPath = classesPath;
-        this.executorService = executorService;
+        this.scheduler = scheduler;
     }
 
-    IBundleCoverage analyze(StoreStrategy storeStrategy, List<File> executionFiles) throws IOException {
-        return analyze(getExecutionDataStore(storeStrategy, executionFiles));
+    /**
+     * Classes rejected by the filter are not parsed and are missing in the analysis results.
+     */
+    void setClassFilter(LongPredicate classFilter) {
+        this.classFilter = classFilter;
     }
 
-    private ExecutionDataStore getExecutionDataStore(
-            StoreStrategy storeStrategy,
-            List<File> executionFiles
-    ) throws IOException {
-        ExecutionDataVisitor visitor = new ExecutionDataVisitor();
-        visitor.setStoreStrategy(storeStrategy);
+    void setStructureCache(IStructureCache structureCache) {
+        this.structureCache = structureCache;
+    }
 
-        FileLoader fileLoader = new FileLoader(visitor);
-        for (File executionFile : executionFiles) {
-            fileLoader.load(executionFile); // merge files
-        }
+    void setExecutionDataCache(ExecutionDataCache executionDataCache) {
+        this.executionDataCache = executionDataCache;
+    }
 
-        return visitor.getExecutionDataStore();
+    /**
+     * The phase counts the analyzed units, their bytes and the archive entries among them.
+     */
+    void setPhase(Metrics.Phase phase) {
+        this.phase = phase;
     }
 
-    private IBundleCoverage analyze(ExecutionDataStore executionDataStore) {
-        CoverageBuilder coverageBuilder = new CoverageBuilder();
+    /**
+     * The names and descriptors of all classes this analyzer parses are normalized with this pool, so they are
+     * released together with the analyzer.
+     */
+    StringPool getStringPool() {
+        return stringPool;
+    }
 
-        CompletableFuture[] tasks = classesPath.stream()
-                .map(file -> runAsync(() -> analyzeFile(file, executionDataStore, coverageBuilder), executorService))
-                .collect(Collectors.toList())
-                .toArray(new CompletableFuture[classesPath.size()]);
+    IBundleCoverage analyze(StoreStrategy storeStrategy, List<File> executionFiles) throws IOException {
+        return analyze(Collections.singletonList(Scheduler.join(load(storeStrategy, executionFiles)))).get(0);
+    }
 
-        try {
-            CompletableFuture.allOf(tasks).get();
-        } catch (InterruptedException | ExecutionException e) {
-            throw new RuntimeException(e);
+    CompletableFuture<ExecutionDataStore> load(StoreStrategy storeStrategy, List<File> executionFiles) {
+        return new ExecutionDataLoader(scheduler, executionDataCache).load(storeStrategy, executionFiles);
+    }
+
+    CompletableFuture<ExecutionDataStore> load(LongSet classIds, List<File> executionFiles) {
+        return new ExecutionDataLoader(scheduler, executionDataCache).load(classIds, executionFiles);
+    }
+
+    /**
+     * Parses every class once and returns the coverage for each of the stores, in the same order.
+     */
+    List<IBundleCoverage> analyze(List<ExecutionDataStore> executionDataStores) {
+        ExecutionDataStore[] stores = executionDataStores.toArray(new ExecutionDataStore[0]);
+        CoverageBuilder[] coverageBuilders = new CoverageBuilder[stores.length];
+        for (int i = 0; i < coverageBuilders.length; i++) {
+            coverageBuilders[i] = new CoverageBuilder();
         }
+        analyze(createAnalyzer(new LenientAnalyzer(stores, coverageBuilders)));
 
-        return coverageBuilder.getBundle(String.valueOf(new Date().getTime()));
+        String name = String.valueOf(new Date().getTime());
+        return Arrays.stream(coverageBuilders)
+                .map(coverageBuilder -> coverageBuilder.getBundle(name))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Parses every class once and only keeps the line statuses for each of the stores, in the same order. No coverage
+     * nodes are created, so the memory needed grows with the number of lines rather than with the size of the classes.
+     */
+    List<LineCoverage> analyzeLines(List<ExecutionDataStore> executionDataStores) {
+        ExecutionDataStore[] stores = executionDataStores.toArray(new ExecutionDataStore[0]);
+        LineCoverage[] lineCoverage = new LineCoverage[stores.length];
+        ILinesVisitor[] visitors = new ILinesVisitor[stores.length];
+        for (int i = 0; i < lineCoverage.length; i++) {
+            lineCoverage[i] = new LineCoverage();
+            visitors[i] = lineCoverage[i]::addClass;
+        }
+        analyze(createAnalyzer(new LenientAnalyzer(stores, visitors)));
+        return Arrays.asList(lineCoverage);
     }
 
-    private void analyzeFile(File file, ExecutionDataStore executionDataStore, CoverageBuilder coverageBuilder) {
-        Analyzer analyzer = new Analyzer(executionDataStore, coverageBuilder) {
-            @Override
-            public void analyzeClass(final InputStream input, final String location)  {
+    /**
+     * Every class file or archive is a task of its own, the largest ones are scheduled first. Only the calling thread
+     * waits for the tasks.
+     */
+    private void analyze(Analyzer analyzer) {
+        List<Unit> units = new ArrayList<>();
+        List<ZipFile> archives = new ArrayList<>();
+        try {
+            for (File path : classesPath) {
+                collectUnits(path, units, archives);
+            }
+            units.sort(Comparator.comparingLong((Unit unit) -> unit.size).reversed());
+            if (phase != null) {
+                phase.setTotal(units.size());
+            }
+
+            CompletableFuture[] tasks = units.stream()
+                    .map(unit -> runAsync(() -> analyze(unit, analyzer), scheduler.compute()))
+                    .toArray(CompletableFuture[]::new);
+
+            CompletableFuture.allOf(tasks).join();
+        } finally {
+            for (ZipFile archive : archives) {
                 try {
-                    super.analyzeClass(input, location);
+                    archive.close();
                 } catch (IOException ignored) {}
             }
-        };
+        }
+    }
+
+    private void analyze(Unit unit, Analyzer analyzer) {
+        unit.analyze(analyzer);
+        if (phase != null) {
+            phase.add(Metrics.BYTES_READ, Math.max(0, unit.size));
+            if (unit instanceof ZipEntryUnit) {
+                phase.add(Metrics.ENTRIES, 1);
+            }
+            phase.advance();
+        }
+    }
 
+    private Analyzer createAnalyzer(Analyzer analyzer) {
+        analyzer.setClassFilter(classFilter);
+        analyzer.setStructureCache(structureCache);
+        analyzer.setStringPool(stringPool);
+        return analyzer;
+    }
+
+    private void collectUnits(File file, List<Unit> units, List<ZipFile> archives) {
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (files != null) {
+                for (File child : files) {
+                    collectUnits(child, units, archives);
+                }
+            }
+        } else if (isArchive(file.getName())) {
+            collectArchiveUnits(file, units, archives);
+        } else {
+            units.add(new FileUnit(file));
+        }
+    }
+
+    /**
+     * Every class and nested archive of an archive is a unit of its own, all other entries are skipped by their name
+     * in the central directory without being read.
+     */
+    private void collectArchiveUnits(File file, List<Unit> units, List<ZipFile> archives) {
+        ZipFile archive;
         try {
-            analyzer.analyzeAll(file);
+            archive = new ZipFile(file);
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            // not a regular zip file, let the analyzer detect the content
+            units.add(new FileUnit(file));
+            return;
+        }
+        archives.add(archive);
+
+        Enumeration<? extends ZipEntry> entries = archive.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (entry.isDirectory()) {
+                continue;
+            }
+            String name = entry.getName();
+            if (name.endsWith(".class") || isArchive(name)) {
+                units.add(new ZipEntryUnit(file, archive, entry));
+            }
+        }
+    }
+
+    private static boolean isArchive(String name) {
+        return name.endsWith(".jar") || name.endsWith(".zip") || name.endsWith(".war") || name.endsWith(".ear");
+    }
+
+    /**
+     * Skips classes that can't be read instead of failing the analysis.
+     */
+    private static class LenientAnalyzer extends Analyzer {
+
+        LenientAnalyzer(ExecutionDataStore[] stores, ICoverageVisitor[] coverageVisitors) {
+            super(stores, coverageVisitors);
+        }
+
+        LenientAnalyzer(ExecutionDataStore[] stores, ILinesVisitor[] linesVisitors) {
+            super(stores, linesVisitors);
+        }
+
+        @Override
+        public void analyzeClass(final InputStream input, final String location)  {
+            try {
+                super.analyzeClass(input, location);
+            } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * Smallest piece of work of the analysis.
+     */
+    private abstract static class Unit {
+        final long size;
+
+        Unit(long size) {
+            this.size = size;
         }
+
+        abstract void analyze(Analyzer analyzer);
     }
 
-    private class FileLoader {
+    private static class FileUnit extends Unit {
+        private final File file;
+
+        FileUnit(File file) {
+            super(file.length());
+            this.file = file;
+        }
+
+        @Override
+        void analyze(Analyzer analyzer) {
+            try {
+                analyzer.analyzeAll(file);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
 
-        private final SessionInfoStore sessionInfos;
-        private final IExecutionDataVisitor executionData;
+    private static class ZipEntryUnit extends Unit {
+        private final File file;
+        private final ZipFile archive;
+        private final ZipEntry entry;
 
-        FileLoader(IExecutionDataVisitor executionDataVisitor) {
-            sessionInfos = new SessionInfoStore();
-            executionData = executionDataVisitor;
+        ZipEntryUnit(File file, ZipFile archive, ZipEntry entry) {
+            super(entry.getSize());
+            this.file = file;
+            this.archive = archive;
+            this.entry = entry;
         }
 
-        void load(final File file) throws IOException {
-            try (InputStream stream = new FileInputStream(file)) {
-                final ExecutionDataReader reader = new ExecutionDataReader(new BufferedInputStream(stream));
-                reader.setExecutionDataVisitor(executionData);
-                reader.setSessionInfoVisitor(sessionInfos);
-                reader.read();
+        @Override
+        void analyze(Analyzer analyzer) {
+            String location = file.getPath() + "@" + entry.getName();
+            try (InputStream input = archive.getInputStream(entry)) {
+                if (entry.getName().endsWith(".class")) {
+                    analyzer.analyzeClass(input, location);
+                } else {
+                    analyzer.analyzeAll(input, location);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,149 @@
+package edu.cmu.jacoco;
+
+import edu.cmu.jacoco.LineCoverage.ClassLines;
+import org.jacoco.core.analysis.IBundleCoverage;
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.analysis.IPackageCoverage;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
+
+/**
+ * Finds the lines the baseline covers and the candidate doesn't cover fully. Only lines from the first line of a class
+ * up to, but not including, its last line are compared.
+ */
+class DifferenceCalculator {
+
+    /**
+     * Walks the classes of both bundles once and passes a difference for every class with at least one such line.
+     */
+    void calculate(IBundleCoverage base, IBundleCoverage candidate, Consumer<ClassDifference> consumer) {
+        calculate(base, candidate, id -> true, consumer);
+    }
+
+    /**
+     * Same as above, restricted to the classes the filter accepts.
+     */
+    void calculate(
+            IBundleCoverage base,
+            IBundleCoverage candidate,
+            LongPredicate classFilter,
+            Consumer<ClassDifference> consumer
+    ) {
+        Map<String, IClassCoverage> candidateClasses = new HashMap<>();
+        for (IPackageCoverage packageCoverage : candidate.getPackages()) {
+            for (IClassCoverage classCoverage : packageCoverage.getClasses()) {
+                candidateClasses.put(classCoverage.getName(), classCoverage);
+            }
+        }
+
+        Builder builder = new Builder();
+        for (IPackageCoverage packageCoverage : base.getPackages()) {
+            String packageName = packageCoverage.getName().replace('/', '.');
+
+            for (IClassCoverage baseClass : packageCoverage.getClasses()) {
+                if (baseClass.getFirstLine() == -1 || !classFilter.test(baseClass.getId())) {
+                    continue;
+                }
+                IClassCoverage candidateClass = candidateClasses.get(baseClass.getName());
+
+                for (int line = baseClass.getFirstLine(); line < baseClass.getLastLine(); line++) {
+                    if (!isCovered(baseClass, line)) {
+                        continue;
+                    }
+                    int status = candidateClass == null ? ICounter.NOT_COVERED : getStatus(candidateClass, line);
+                    if (status != ICounter.FULLY_COVERED) {
+                        builder.add(line, status);
+                    }
+                }
+
+                builder.build(packageName, getSimpleName(baseClass.getName()), consumer);
+            }
+        }
+    }
+
+    /**
+     * Same comparison based on the lines stored for both suites.
+     */
+    void calculate(LineCoverage base, LineCoverage candidate, Consumer<ClassDifference> consumer) {
+        calculate(base, candidate, id -> true, consumer);
+    }
+
+    /**
+     * Same as above, restricted to the classes the filter accepts.
+     */
+    void calculate(LineCoverage base, LineCoverage candidate, LongPredicate classFilter, Consumer<ClassDifference> consumer) {
+        Builder builder = new Builder();
+        for (ClassLines baseLines : base.getClasses()) {
+            if (!classFilter.test(baseLines.getId())) {
+                continue;
+            }
+            ClassLines lines = candidate.get(baseLines.getPackageName(), baseLines.getClassName());
+
+            for (int line = baseLines.getFirstLine(); line <= baseLines.getLastLine(); line++) {
+                if (baseLines.getStatus(line) == ICounter.EMPTY) {
+                    continue;
+                }
+                int status = lines == null ? ICounter.EMPTY : lines.getStatus(line);
+                if (status != ICounter.FULLY_COVERED) {
+                    builder.add(line, status);
+                }
+            }
+
+            builder.build(baseLines.getPackageName(), baseLines.getClassName(), consumer);
+        }
+    }
+
+    private static boolean isCovered(IClassCoverage classCoverage, int line) {
+        int status = classCoverage.getLine(line).getStatus();
+        return status == ICounter.FULLY_COVERED || status == ICounter.PARTLY_COVERED;
+    }
+
+    private static int getStatus(IClassCoverage classCoverage, int line) {
+        if (line < classCoverage.getFirstLine() || line >= classCoverage.getLastLine()) {
+            return ICounter.NOT_COVERED;
+        }
+        return classCoverage.getLine(line).getStatus();
+    }
+
+    private static String getSimpleName(String name) {
+        return name.substring(name.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Collects the lines of one class at a time, the buffers are reused for all classes.
+     */
+    private static class Builder {
+        private int[] lines = new int[64];
+        private byte[] statuses = new byte[64];
+        private int count = 0;
+        private int partlyCovered = 0;
+
+        void add(int line, int status) {
+            if (count == lines.length) {
+                lines = Arrays.copyOf(lines, count * 2);
+                statuses = Arrays.copyOf(statuses, count * 2);
+            }
+            boolean partly = status == ICounter.PARTLY_COVERED;
+            lines[count] = line;
+            statuses[count] = (byte) (partly ? ICounter.PARTLY_COVERED : ICounter.NOT_COVERED);
+            count++;
+            if (partly) {
+                partlyCovered++;
+            }
+        }
+
+        void build(String packageName, String className, Consumer<ClassDifference> consumer) {
+            if (count > 0) {
+                consumer.accept(new ClassDifference(packageName, className,
+                        Arrays.copyOf(lines, count), Arrays.copyOf(statuses, count), partlyCovered));
+            }
+            count = 0;
+            partlyCovered = 0;
+        }
+    }
+}
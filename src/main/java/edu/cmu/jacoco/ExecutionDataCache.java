@@ -0,0 +1,50 @@
+package edu.cmu.jacoco;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+
+import java.io.File;
+
+/**
+ * Keeps the complete execution data of every file read, bounded by its estimated size. Entries are keyed by the path,
+ * size and modification time of the file, so a rewritten file is read again and its outdated entry ages out. The
+ * cached stores must not be modified, callers get copies.
+ */
+class ExecutionDataCache {
+
+    private final LruCache<String, ExecutionDataStore> stores;
+
+    ExecutionDataCache(long maxBytes) {
+        this.stores = new LruCache<>(maxBytes, ExecutionDataCache::estimateSize);
+    }
+
+    ExecutionDataStore get(File file) {
+        return stores.get(key(file));
+    }
+
+    void put(File file, ExecutionDataStore store) {
+        stores.put(key(file), store);
+    }
+
+    LruCache<String, ExecutionDataStore> getStores() {
+        return stores;
+    }
+
+    private static String key(File file) {
+        return file.getAbsolutePath() + "@" + file.lastModified() + ":" + file.length();
+    }
+
+    private static long estimateSize(ExecutionDataStore store) {
+        long size = 64;
+        for (ExecutionData data : store.getContents()) {
+            // the data, its probes, its name and the map entry
+            size += 96 + data.getProbes().length + 2L * data.getName().length();
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return stores.toString();
+    }
+}
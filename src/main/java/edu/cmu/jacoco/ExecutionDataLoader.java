@@ -0,0 +1,130 @@
+package edu.cmu.jacoco;
+
+import edu.cmu.jacoco.ExecutionDataVisitor.StoreStrategy;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataReader;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.SessionInfoStore;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+
+/**
+ * Loads many execution data files concurrently. Every file is read into a store of its own on the I/O executor, the
+ * stores are then merged pairwise until one is left. Nothing waits for the result, it is completed when the last merge
+ * is done. With a cache, every file is read completely once and later loads filter copies of the cached data.
+ */
+class ExecutionDataLoader {
+
+    private static final long MAX_READ_AT_ONCE = 64 * 1024 * 1024;
+    private static final int STREAM_BUFFER_SIZE = 1024 * 1024;
+
+    private final Scheduler scheduler;
+    private final ExecutionDataCache cache;
+
+    /**
+     * @param cache the cache of the files read, or null
+     */
+    ExecutionDataLoader(Scheduler scheduler, ExecutionDataCache cache) {
+        this.scheduler = scheduler;
+        this.cache = cache;
+    }
+
+    CompletableFuture<ExecutionDataStore> load(StoreStrategy storeStrategy, List<File> executionFiles) {
+        return load(storeStrategy, null, executionFiles);
+    }
+
+    /**
+     * Only the execution data of the given classes is decoded, all other records are skipped while reading.
+     */
+    CompletableFuture<ExecutionDataStore> load(LongSet classIds, List<File> executionFiles) {
+        return load(data -> true, classIds, executionFiles);
+    }
+
+    private CompletableFuture<ExecutionDataStore> load(
+            StoreStrategy storeStrategy,
+            LongSet classIds,
+            List<File> executionFiles
+    ) {
+        List<CompletableFuture<ExecutionDataStore>> stores = executionFiles.stream()
+                .map(file -> supplyAsync(() -> load(storeStrategy, classIds, file), scheduler.io()))
+                .collect(Collectors.toList());
+
+        if (stores.isEmpty()) {
+            return CompletableFuture.completedFuture(new ExecutionDataStore());
+        }
+
+        while (stores.size() > 1) {
+            List<CompletableFuture<ExecutionDataStore>> merged = new ArrayList<>();
+            for (int i = 0; i + 1 < stores.size(); i += 2) {
+                merged.add(stores.get(i).thenCombineAsync(stores.get(i + 1), ExecutionDataLoader::merge,
+                        scheduler.compute()));
+            }
+            if (stores.size() % 2 == 1) {
+                merged.add(stores.get(stores.size() - 1));
+            }
+            stores = merged;
+        }
+
+        return stores.get(0);
+    }
+
+    private static ExecutionDataStore merge(ExecutionDataStore target, ExecutionDataStore source) {
+        source.accept(target);
+        return target;
+    }
+
+    private ExecutionDataStore load(StoreStrategy storeStrategy, LongSet classIds, File file) {
+        if (cache == null) {
+            return read(storeStrategy, classIds, file);
+        }
+        ExecutionDataStore cached = cache.get(file);
+        if (cached == null) {
+            cached = read(data -> true, null, file);
+            cache.put(file, cached);
+        }
+        // merging modifies the stores, so the cached data is copied
+        ExecutionDataStore store = new ExecutionDataStore();
+        for (ExecutionData data : cached.getContents()) {
+            if ((classIds == null || classIds.contains(data.getId())) && storeStrategy.shouldBeStored(data)) {
+                store.put(new ExecutionData(data.getId(), data.getName(), data.getProbes().clone()));
+            }
+        }
+        return store;
+    }
+
+    private ExecutionDataStore read(StoreStrategy storeStrategy, LongSet classIds, File file) {
+        ExecutionDataVisitor visitor = new ExecutionDataVisitor();
+        visitor.setStoreStrategy(storeStrategy);
+
+        try (InputStream stream = open(file)) {
+            ExecutionDataReader reader = classIds == null
+                    ? new ExecutionDataReader(stream)
+                    : new FilteringExecutionDataReader(stream, classIds);
+            reader.setExecutionDataVisitor(visitor);
+            reader.setSessionInfoVisitor(new SessionInfoStore());
+            reader.read();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return visitor.getExecutionDataStore();
+    }
+
+    /**
+     * Small files are read at once and closed before they are decoded, larger ones are streamed. Files are not memory
+     * mapped, as mappings are only released by the garbage collector and keep the files locked on Windows until then.
+     */
+    private static InputStream open(File file) throws IOException {
+        if (file.length() <= MAX_READ_AT_ONCE) {
+            return new ByteArrayInputStream(Files.readAllBytes(file.toPath()));
+        }
+        return new BufferedInputStream(new FileInputStream(file), STREAM_BUFFER_SIZE);
+    }
+}
@@ -0,0 +1,63 @@
+package edu.cmu.jacoco;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataReader;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.jacoco.core.data.IExecutionDataVisitor;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reader that only decodes the execution data of wanted classes. For all other classes the name and the probes are
+ * skipped right after the class id has been read, so neither strings nor probe arrays are allocated for them.
+ */
+class FilteringExecutionDataReader extends ExecutionDataReader {
+
+    private final LongSet classIds;
+
+    private IExecutionDataVisitor executionDataVisitor;
+
+    FilteringExecutionDataReader(InputStream input, LongSet classIds) {
+        super(input);
+        this.classIds = classIds;
+    }
+
+    @Override
+    public void setExecutionDataVisitor(IExecutionDataVisitor visitor) {
+        super.setExecutionDataVisitor(visitor);
+        this.executionDataVisitor = visitor;
+    }
+
+    @Override
+    protected boolean readBlock(byte blocktype) throws IOException {
+        if (blocktype != ExecutionDataWriter.BLOCK_EXECUTIONDATA) {
+            return super.readBlock(blocktype);
+        }
+        if (executionDataVisitor == null) {
+            throw new IOException("No execution data visitor.");
+        }
+
+        long id = in.readLong();
+        if (classIds.contains(id)) {
+            String name = in.readUTF();
+            boolean[] probes = in.readBooleanArray();
+            executionDataVisitor.visitClassExecution(new ExecutionData(id, name, probes));
+        } else {
+            skip(in.readUnsignedShort()); // modified UTF-8 name
+            skip((in.readVarInt() + 7) / 8); // probes packed into bytes
+        }
+        return true;
+    }
+
+    private void skip(int count) throws IOException {
+        while (count > 0) {
+            int skipped = in.skipBytes(count);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            count -= skipped;
+        }
+    }
+}
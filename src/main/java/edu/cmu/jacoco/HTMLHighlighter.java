@@ -9,7 +9,6 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.List;
 
 import org.jacoco.core.analysis.ICounter;
 
@@ -23,26 +22,17 @@ public class HTMLHighlighter {
 		this.className = name;		
 	}
 
-	public boolean setSources(List<File> sources) {
-		boolean exist = false;
-
-		for (File source: sources) {
-			if (source.exists()) {
-				try {
-					this.source = new BufferedReader(new FileReader(source.getAbsoluteFile()));
-					exist = true;
-					break;
-				} catch (FileNotFoundException e) {
-					e.printStackTrace();
-					exist = false;
-				}
-			}
+	public boolean setSource(File source) {
+		if (source == null) {
+			System.out.println("Source does not exists " + className);
+			return false;
 		}
 
-		if (exist) {
+		try {
+			this.source = new BufferedReader(new FileReader(source.getAbsoluteFile()));
 			return true;
-		} else {
-			System.out.println("Source does not exists " + sources.get(0).getName());
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
 			return false;
 		}
 	}
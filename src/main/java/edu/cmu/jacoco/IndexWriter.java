@@ -0,0 +1,51 @@
+package edu.cmu.jacoco;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import static j2html.TagCreator.*;
+
+/**
+ * Writes index.html row by row, only the row being written is kept in memory.
+ */
+class IndexWriter implements Closeable {
+
+    private final Writer writer;
+
+    IndexWriter(File file, String title) throws IOException {
+        writer = new BufferedWriter(new FileWriter(file));
+        writer.write("<!DOCTYPE html><html>");
+        writer.write(head(title(title)).render());
+        writer.write("<body>");
+        writer.write(h2(title).render());
+        writer.write("<table>");
+        writer.write(thead(
+            tr(
+                td("Package"), td("Class"), td("Partly covered"), td("Not covered")
+            )
+        ).render());
+        writer.write("<tbody>");
+    }
+
+    void write(String packageName, String className, String href, int partlyCovered, int notCovered, String color)
+            throws IOException {
+        tr(
+            td(packageName),
+            td(
+                a().withText(className).withHref(href)
+            ),
+            td(String.valueOf(partlyCovered)),
+            td(String.valueOf(notCovered))
+        ).withStyle("background-color:" + color).render(writer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.write("</tbody></table></body></html>");
+        writer.close();
+    }
+}
@@ -0,0 +1,188 @@
+package edu.cmu.jacoco;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Single pass lexer that turns Java source lines into escaped HTML with a span around every keyword, literal,
+ * comment and annotation. Comments and text blocks may span several lines, so the lines of a file have to be passed
+ * in order to one instance. Every line is self-contained: spans are closed at the end of a line and reopened on the
+ * next one, so a line can be wrapped into a coverage span of its own.
+ */
+class JavaHighlighter {
+
+    static final String STYLE = "pre{color:#444}"
+            + ".k{color:#333;font-weight:bold}"
+            + ".s{color:#880000}"
+            + ".n{color:#880000}"
+            + ".c{color:#888888}"
+            + ".a{color:#1f7199}";
+
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const", "continue",
+            "default", "do", "double", "else", "enum", "extends", "final", "finally", "float", "for", "goto", "if",
+            "implements", "import", "instanceof", "int", "interface", "long", "native", "new", "package", "private",
+            "protected", "public", "return", "short", "static", "strictfp", "super", "switch", "synchronized", "this",
+            "throw", "throws", "transient", "try", "void", "volatile", "while", "var", "record", "yield",
+            "true", "false", "null"
+    ));
+
+    private enum State {
+        CODE,
+        COMMENT,
+        TEXT_BLOCK
+    }
+
+    private State state = State.CODE;
+
+    /**
+     * Appends the highlighted line, without a line terminator.
+     */
+    void highlight(String line, StringBuilder out) {
+        int length = line.length();
+        int i = 0;
+        while (i < length) {
+            if (state == State.COMMENT) {
+                int end = line.indexOf("*/", i);
+                int stop = end == -1 ? length : end + 2;
+                span("c", line, i, stop, out);
+                if (end != -1) {
+                    state = State.CODE;
+                }
+                i = stop;
+                continue;
+            }
+            if (state == State.TEXT_BLOCK) {
+                int end = findTextBlockEnd(line, i);
+                int stop = end == -1 ? length : end + 3;
+                span("s", line, i, stop, out);
+                if (end != -1) {
+                    state = State.CODE;
+                }
+                i = stop;
+                continue;
+            }
+
+            char c = line.charAt(i);
+            if (c == '/' && i + 1 < length && line.charAt(i + 1) == '/') {
+                span("c", line, i, length, out);
+                i = length;
+            } else if (c == '/' && i + 1 < length && line.charAt(i + 1) == '*') {
+                int end = line.indexOf("*/", i + 2);
+                int stop = end == -1 ? length : end + 2;
+                span("c", line, i, stop, out);
+                if (end == -1) {
+                    state = State.COMMENT;
+                }
+                i = stop;
+            } else if (c == '"' && line.startsWith("\"\"\"", i)) {
+                int end = findTextBlockEnd(line, i + 3);
+                int stop = end == -1 ? length : end + 3;
+                span("s", line, i, stop, out);
+                if (end == -1) {
+                    state = State.TEXT_BLOCK;
+                }
+                i = stop;
+            } else if (c == '"' || c == '\'') {
+                int stop = findQuoteEnd(line, i + 1, c);
+                span("s", line, i, stop, out);
+                i = stop;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int stop = i + 1;
+                while (stop < length && Character.isJavaIdentifierPart(line.charAt(stop))) {
+                    stop++;
+                }
+                if (KEYWORDS.contains(line.substring(i, stop))) {
+                    span("k", line, i, stop, out);
+                } else {
+                    escape(line, i, stop, out);
+                }
+                i = stop;
+            } else if (isDigit(c) || c == '.' && i + 1 < length && isDigit(line.charAt(i + 1))) {
+                int stop = findNumberEnd(line, i);
+                span("n", line, i, stop, out);
+                i = stop;
+            } else if (c == '@' && i + 1 < length && Character.isJavaIdentifierStart(line.charAt(i + 1))) {
+                int stop = i + 1;
+                while (stop < length && (Character.isJavaIdentifierPart(line.charAt(stop)) || line.charAt(stop) == '.')) {
+                    stop++;
+                }
+                span("a", line, i, stop, out);
+                i = stop;
+            } else {
+                escape(line, i, i + 1, out);
+                i++;
+            }
+        }
+    }
+
+    private static int findQuoteEnd(String line, int from, char quote) {
+        for (int i = from; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == quote) {
+                return i + 1;
+            }
+        }
+        return line.length();
+    }
+
+    private static int findTextBlockEnd(String line, int from) {
+        for (int i = from; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '"' && line.startsWith("\"\"\"", i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int findNumberEnd(String line, int from) {
+        boolean hex = line.startsWith("0x", from) || line.startsWith("0X", from);
+        int i = from + 1;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            char previous = line.charAt(i - 1);
+            boolean exponentSign = (c == '+' || c == '-')
+                    && (hex ? previous == 'p' || previous == 'P' : previous == 'e' || previous == 'E');
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '.' && !exponentSign) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static void span(String cssClass, String line, int from, int to, StringBuilder out) {
+        out.append("<span class=\"").append(cssClass).append("\">");
+        escape(line, from, to, out);
+        out.append("</span>");
+    }
+
+    static void escape(String text, int from, int to, StringBuilder out) {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                case '&':
+                    out.append("&amp;");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package edu.cmu.jacoco;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds the class roots and the source roots of a checkout in one walk: directories named "classes" below a "javac"
+ * directory, and directories named "java" below a "main" directory below a "src" directory. Every directory is listed
+ * by a task of its own, matched roots and the directories in {@link #PRUNED} are not descended into. Symbolic links to
+ * directories outside the root are followed once, links into the root are skipped as it is walked anyway.
+ *
+ * The layout found can be kept in a file, it is reused as long as it was found for the same root and all of its roots
+ * still exist. The file has to be deleted when modules are added.
+ */
+class LayoutDiscovery {
+
+    static final Set<String> PRUNED = new HashSet<>(Arrays.asList(".git", "node_modules"));
+
+    private static final String ROOT = "root";
+    private static final String CLASSES = "classes";
+    private static final String SOURCES = "sources";
+
+    // how far a directory is on the way to a source root
+    private static final int OUTSIDE_SRC = 0;
+    private static final int IN_SRC = 1;
+    private static final int IN_MAIN = 2;
+
+    private final Scheduler scheduler;
+    private final Queue<String> classRoots = new ConcurrentLinkedQueue<>();
+    private final Queue<String> sourceRoots = new ConcurrentLinkedQueue<>();
+    private final Set<Path> linkTargets = ConcurrentHashMap.newKeySet();
+    private Path realRoot;
+    private final AtomicLong directories = new AtomicLong();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    LayoutDiscovery(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @param layoutCache the file to reuse the layout from and to keep it in, or null
+     */
+    Layout discover(File root, File layoutCache) throws IOException {
+        String rootPath = root.getAbsolutePath();
+        if (layoutCache != null) {
+            Layout layout = read(layoutCache, rootPath);
+            if (layout != null) {
+                return layout;
+            }
+        }
+
+        realRoot = root.toPath().toRealPath();
+        pending.incrementAndGet();
+        submit(root.toPath(), false, OUTSIDE_SRC);
+        Scheduler.join(done);
+
+        List<String> classes = new ArrayList<>(classRoots);
+        List<String> sources = new ArrayList<>(sourceRoots);
+        // the order of the roots decides which of two equally named source files wins
+        Collections.sort(classes);
+        Collections.sort(sources);
+        Layout layout = new Layout(classes, sources, directories.get());
+        if (layoutCache != null) {
+            write(layoutCache, rootPath, layout);
+        }
+        return layout;
+    }
+
+    private void submit(Path directory, boolean inJavac, int sourceState) {
+        scheduler.io().execute(() -> {
+            try {
+                list(directory, inJavac, sourceState);
+            } catch (RuntimeException e) {
+                done.completeExceptionally(e);
+            } finally {
+                if (pending.decrementAndGet() == 0) {
+                    done.complete(null);
+                }
+            }
+        });
+    }
+
+    private void list(Path directory, boolean inJavac, int sourceState) {
+        directories.incrementAndGet();
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+            for (Path child : children) {
+                if (isDirectory(child)) {
+                    visit(child, inJavac, sourceState);
+                }
+            }
+        } catch (IOException ignored) {
+            // unreadable directories contain no roots
+        }
+    }
+
+    private void visit(Path directory, boolean inJavac, int sourceState) {
+        String name = directory.getFileName().toString();
+        if (PRUNED.contains(name)) {
+            return;
+        }
+        if (inJavac && name.equals("classes")) {
+            classRoots.add(directory.toAbsolutePath().toString());
+            return;
+        }
+        if (sourceState == IN_MAIN && name.equals("java")) {
+            sourceRoots.add(directory.toAbsolutePath().toString());
+            return;
+        }
+        if (sourceState == OUTSIDE_SRC && name.equals("src")) {
+            sourceState = IN_SRC;
+        } else if (sourceState == IN_SRC && name.equals("main")) {
+            sourceState = IN_MAIN;
+        }
+        pending.incrementAndGet();
+        submit(directory, inJavac || name.equals("javac"), sourceState);
+    }
+
+    private boolean isDirectory(Path path) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(
+                    path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (!attributes.isSymbolicLink()) {
+                return attributes.isDirectory();
+            }
+            // a link is only followed the first time its target is reached, which also breaks cycles
+            if (!Files.isDirectory(path)) {
+                return false;
+            }
+            Path target = path.toRealPath();
+            return !target.startsWith(realRoot) && linkTargets.add(target);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static Layout read(File layoutCache, String rootPath) {
+        if (!layoutCache.isFile()) {
+            return null;
+        }
+        List<String> classes = new ArrayList<>();
+        List<String> sources = new ArrayList<>();
+        boolean sameRoot = false;
+        try {
+            for (String line : Files.readAllLines(layoutCache.toPath(), StandardCharsets.UTF_8)) {
+                int separator = line.indexOf('\t');
+                if (separator < 0) {
+                    return null;
+                }
+                String key = line.substring(0, separator);
+                String path = line.substring(separator + 1);
+                if (key.equals(ROOT)) {
+                    sameRoot = path.equals(rootPath);
+                } else if (!new File(path).isDirectory()) {
+                    return null;
+                } else if (key.equals(CLASSES)) {
+                    classes.add(path);
+                } else if (key.equals(SOURCES)) {
+                    sources.add(path);
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return sameRoot ? new Layout(classes, sources, 0) : null;
+    }
+
+    private static void write(File layoutCache, String rootPath, Layout layout) {
+        try (Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(layoutCache), StandardCharsets.UTF_8))) {
+            writer.write(ROOT + "\t" + rootPath + "\n");
+            for (String path : layout.classes) {
+                writer.write(CLASSES + "\t" + path + "\n");
+            }
+            for (String path : layout.sources) {
+                writer.write(SOURCES + "\t" + path + "\n");
+            }
+        } catch (IOException ignored) {
+            // the layout is found again next time
+        }
+    }
+
+    static class Layout {
+        final List<String> classes;
+        final List<String> sources;
+        final long directories;
+
+        Layout(List<String> classes, List<String> sources, long directories) {
+            this.classes = classes;
+            this.sources = sources;
+            this.directories = directories;
+        }
+    }
+}
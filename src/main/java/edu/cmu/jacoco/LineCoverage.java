@@ -0,0 +1,219 @@
+package edu.cmu.jacoco;
+
+import org.jacoco.core.analysis.IBundleCoverage;
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.analysis.IPackageCoverage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Line statuses of all classes of a suite. Package and class names are kept in a symbol table and the status of
+ * every line is packed into two bits, indexed by the line number.
+ */
+public class LineCoverage {
+
+    private static final int BITS = 2;
+    private static final int LINES_PER_WORD = Long.SIZE / BITS;
+    private static final long MASK = (1L << BITS) - 1;
+
+    private final SymbolTable symbols = new SymbolTable();
+    private final Map<Long, ClassLines> classes = new HashMap<>();
+    private final List<ClassLines> order = new ArrayList<>();
+
+    /**
+     * Adds the lines of a class, {@link ICounter#EMPTY} statuses are not stored.
+     *
+     * @param statuses ICounter status per line, starting at firstLine
+     */
+    void add(String packageName, String className, int firstLine, int[] statuses) {
+        add(0, packageName, className, firstLine, statuses);
+    }
+
+    /**
+     * Stores the lines of a class the same way {@link #from(IBundleCoverage)} does, may be called from several threads.
+     *
+     * @param name VM name of the class
+     * @param statuses ICounter status of every line of the class, starting at firstLine
+     */
+    synchronized void addClass(long id, String name, int firstLine, int[] statuses) {
+        int[] stored = new int[Math.max(0, statuses.length - 1)];
+        for (int i = 0; i < stored.length; i++) {
+            if (statuses[i] != ICounter.NOT_COVERED) {
+                stored[i] = statuses[i];
+            }
+        }
+        int separator = name.lastIndexOf('/');
+        String packageName = separator == -1 ? "" : name.substring(0, separator).replace('/', '.');
+        add(id, packageName, name.substring(separator + 1), firstLine, stored);
+    }
+
+    private void add(long id, String packageName, String className, int firstLine, int[] statuses) {
+        int first = 0;
+        while (first < statuses.length && statuses[first] == ICounter.EMPTY) {
+            first++;
+        }
+        if (first == statuses.length) {
+            return;
+        }
+        int last = statuses.length - 1;
+        while (statuses[last] == ICounter.EMPTY) {
+            last--;
+        }
+
+        int packageSymbol = symbols.add(packageName);
+        int classSymbol = symbols.add(className);
+        ClassLines lines = classes.get(key(packageSymbol, classSymbol));
+        if (lines == null) {
+            lines = new ClassLines(id, packageSymbol, classSymbol);
+            classes.put(key(packageSymbol, classSymbol), lines);
+            order.add(lines);
+        }
+        lines.ensureCapacity(firstLine + first, firstLine + last);
+        for (int i = first; i <= last; i++) {
+            if (statuses[i] != ICounter.EMPTY) {
+                lines.set(firstLine + i, statuses[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the lines of the class or null if no line of the class is stored
+     */
+    ClassLines get(String packageName, String className) {
+        int packageSymbol = symbols.get(packageName);
+        int classSymbol = symbols.get(className);
+        if (packageSymbol == SymbolTable.NONE || classSymbol == SymbolTable.NONE) {
+            return null;
+        }
+        return classes.get(key(packageSymbol, classSymbol));
+    }
+
+    int getStatus(String packageName, String className, int line) {
+        ClassLines lines = get(packageName, className);
+        return lines == null ? ICounter.EMPTY : lines.getStatus(line);
+    }
+
+    Collection<ClassLines> getClasses() {
+        return Collections.unmodifiableList(order);
+    }
+
+    /**
+     * Stores the fully and partly covered lines of every class, from the first line of a class up to, but not
+     * including, its last line.
+     */
+    static LineCoverage from(IBundleCoverage coverage) {
+        LineCoverage info = new LineCoverage();
+        for (IPackageCoverage packageCoverage: coverage.getPackages()) {
+            String packageName = packageCoverage.getName().replace('/', '.');
+
+            for (IClassCoverage classCoverage: packageCoverage.getClasses()) {
+                int firstLineWithCoverage = classCoverage.getFirstLine();
+                if (firstLineWithCoverage == -1) {
+                    continue;
+                }
+
+                String[] classNameParts = classCoverage.getName().split("/");
+                String className = classNameParts[classNameParts.length - 1];
+
+                int[] statuses = new int[Math.max(0, classCoverage.getLastLine() - firstLineWithCoverage)];
+                for (int linePosition = firstLineWithCoverage; linePosition < classCoverage.getLastLine(); linePosition++) {
+                    int status = classCoverage.getLine(linePosition).getStatus();
+                    if (status == ICounter.NOT_COVERED || status == ICounter.EMPTY) {
+                        continue;
+                    }
+                    statuses[linePosition - firstLineWithCoverage] = status;
+                }
+
+                info.add(classCoverage.getId(), packageName, className, firstLineWithCoverage, statuses);
+            }
+        }
+        return info;
+    }
+
+    private static long key(int packageSymbol, int classSymbol) {
+        return ((long) packageSymbol << 32) | (classSymbol & 0xffffffffL);
+    }
+
+    class ClassLines {
+        private final long id;
+        private final int packageSymbol;
+        private final int classSymbol;
+        private int firstLine = -1;
+        private int lineCount = 0;
+        private long[] words = new long[0];
+
+        private ClassLines(long id, int packageSymbol, int classSymbol) {
+            this.id = id;
+            this.packageSymbol = packageSymbol;
+            this.classSymbol = classSymbol;
+        }
+
+        /**
+         * @return id of the class the lines were first added for
+         */
+        long getId() {
+            return id;
+        }
+
+        String getPackageName() {
+            return symbols.getName(packageSymbol);
+        }
+
+        String getClassName() {
+            return symbols.getName(classSymbol);
+        }
+
+        int getFirstLine() {
+            return firstLine;
+        }
+
+        int getLastLine() {
+            return firstLine + lineCount - 1;
+        }
+
+        int getStatus(int line) {
+            int index = line - firstLine;
+            if (firstLine == -1 || index < 0 || index >= lineCount) {
+                return ICounter.EMPTY;
+            }
+            return (int) ((words[index / LINES_PER_WORD] >>> (index % LINES_PER_WORD * BITS)) & MASK);
+        }
+
+        private void set(int line, int status) {
+            int index = line - firstLine;
+            int shift = index % LINES_PER_WORD * BITS;
+            words[index / LINES_PER_WORD] = (words[index / LINES_PER_WORD] & ~(MASK << shift)) | ((long) status << shift);
+        }
+
+        private void ensureCapacity(int first, int last) {
+            if (firstLine == -1) {
+                firstLine = first;
+                lineCount = last - first + 1;
+                words = new long[(lineCount + LINES_PER_WORD - 1) / LINES_PER_WORD];
+                return;
+            }
+            int newFirst = Math.min(firstLine, first);
+            int newLast = Math.max(getLastLine(), last);
+            if (newFirst == firstLine && newLast == getLastLine()) {
+                return;
+            }
+            int newCount = newLast - newFirst + 1;
+            long[] newWords = new long[(newCount + LINES_PER_WORD - 1) / LINES_PER_WORD];
+            int shift = firstLine - newFirst;
+            for (int i = 0; i < lineCount; i++) {
+                int status = getStatus(firstLine + i);
+                int index = i + shift;
+                newWords[index / LINES_PER_WORD] |= (long) status << (index % LINES_PER_WORD * BITS);
+            }
+            firstLine = newFirst;
+            lineCount = newCount;
+            words = newWords;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package edu.cmu.jacoco;
+
+/**
+ * Set of primitive longs with open addressing, used for class ids. Not thread safe for writes, concurrent reads of a
+ * set that isn't modified anymore are fine.
+ */
+class LongSet {
+
+    private static final long EMPTY = 0;
+
+    private long[] slots = new long[16];
+    private boolean containsEmpty = false;
+    private int size = 0;
+
+    boolean add(long value) {
+        if (value == EMPTY) {
+            boolean added = !containsEmpty;
+            containsEmpty = true;
+            size += added ? 1 : 0;
+            return added;
+        }
+        if ((size + 1) * 2 > slots.length) {
+            resize();
+        }
+        int slot = find(slots, value);
+        if (slots[slot] == value) {
+            return false;
+        }
+        slots[slot] = value;
+        size++;
+        return true;
+    }
+
+    boolean contains(long value) {
+        if (value == EMPTY) {
+            return containsEmpty;
+        }
+        return slots[find(slots, value)] == value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private static int find(long[] slots, long value) {
+        int mask = slots.length - 1;
+        int slot = hash(value) & mask;
+        while (slots[slot] != EMPTY && slots[slot] != value) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void resize() {
+        long[] resized = new long[slots.length * 2];
+        for (long value : slots) {
+            if (value != EMPTY) {
+                resized[find(resized, value)] = value;
+            }
+        }
+        slots = resized;
+    }
+}
@@ -0,0 +1,115 @@
+package edu.cmu.jacoco;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * In-memory cache bounded by the total weight of its values. Lookups only stamp the entry with a counter, the least
+ * recently used entries are removed once the bound is exceeded until the cache is 10% below it.
+ */
+class LruCache<K, V> {
+
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final long maxWeight;
+    private final ToLongFunction<V> weigher;
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong weight = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final Object evictionLock = new Object();
+
+    LruCache(long maxWeight, ToLongFunction<V> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        entry.lastUsed = clock.incrementAndGet();
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+    void put(K key, V value) {
+        Entry<V> entry = new Entry<>(value, weigher.applyAsLong(value), clock.incrementAndGet());
+        Entry<V> previous = entries.put(key, entry);
+        long delta = entry.weight - (previous == null ? 0 : previous.weight);
+        if (weight.addAndGet(delta) > maxWeight) {
+            evict();
+        }
+    }
+
+    private void evict() {
+        synchronized (evictionLock) {
+            if (weight.get() <= maxWeight) {
+                return;
+            }
+            List<Map.Entry<K, Entry<V>>> candidates = new ArrayList<>(entries.entrySet());
+            // lookups keep stamping the entries, so they are sorted by a copy of the stamps
+            long[] lastUsed = new long[candidates.size()];
+            Integer[] order = new Integer[candidates.size()];
+            for (int i = 0; i < order.length; i++) {
+                lastUsed[i] = candidates.get(i).getValue().lastUsed;
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingLong(i -> lastUsed[i]));
+            long target = maxWeight - maxWeight / 10;
+            for (int i = 0; i < order.length && weight.get() > target; i++) {
+                Map.Entry<K, Entry<V>> candidate = candidates.get(order[i]);
+                if (entries.remove(candidate.getKey(), candidate.getValue())) {
+                    weight.addAndGet(-candidate.getValue().weight);
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long getWeight() {
+        return weight.get();
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return size() + " entries, " + getHits() + " hits, " + getMisses() + " misses, "
+                + getEvictions() + " evictions, " + getWeight() / 1024 + " KB";
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long weight;
+        volatile long lastUsed;
+
+        Entry(V value, long weight, long lastUsed) {
+            this.value = value;
+            this.weight = weight;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
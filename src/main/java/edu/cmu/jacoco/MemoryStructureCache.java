@@ -0,0 +1,57 @@
+package edu.cmu.jacoco;
+
+import edu.cmu.jacoco.async.ClassStructure;
+import edu.cmu.jacoco.async.IStructureCache;
+import edu.cmu.jacoco.async.StringPool;
+import edu.cmu.jacoco.async.StructureCache;
+
+/**
+ * Keeps the structures of the analyzed classes on the heap, bounded by their estimated size, in front of an optional
+ * cache on disk. Structures only found on disk are kept in memory from then on.
+ */
+class MemoryStructureCache implements IStructureCache {
+
+    private final LruCache<Long, ClassStructure> structures;
+    private final StructureCache disk;
+
+    /**
+     * @param disk the cache to fall back to, or null
+     */
+    MemoryStructureCache(long maxBytes, StructureCache disk) {
+        this.structures = new LruCache<>(maxBytes, ClassStructure::estimateSize);
+        this.disk = disk;
+    }
+
+    @Override
+    public ClassStructure get(long classId, StringPool stringPool) {
+        ClassStructure structure = structures.get(classId);
+        if (structure == null && disk != null) {
+            structure = disk.get(classId, stringPool);
+            if (structure != null) {
+                structures.put(classId, structure);
+            }
+        }
+        return structure;
+    }
+
+    @Override
+    public void put(ClassStructure structure) {
+        structures.put(structure.getId(), structure);
+        if (disk != null) {
+            disk.put(structure);
+        }
+    }
+
+    LruCache<Long, ClassStructure> getStructures() {
+        return structures;
+    }
+
+    StructureCache getDisk() {
+        return disk;
+    }
+
+    @Override
+    public String toString() {
+        return structures + (disk == null ? "" : ", on disk " + disk);
+    }
+}
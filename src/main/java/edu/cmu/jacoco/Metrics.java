@@ -0,0 +1,321 @@
+package edu.cmu.jacoco;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the wall time, CPU time, allocated bytes and counters of every phase of a run. CPU time and allocations are
+ * summed over all threads of the process, so phases are expected to run one after another. Threads of the pools
+ * created by {@link #newForkJoinPool(int)} and {@link #newThreadFactory()} hand over their totals when they terminate,
+ * other terminated threads are not accounted for.
+ */
+class Metrics {
+
+    static final String BYTES_READ = "bytes read";
+    static final String CLASSES = "classes";
+    static final String ENTRIES = "archive entries";
+    static final String PROBES = "probes";
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final AtomicLong TERMINATED_CPU_TIME = new AtomicLong();
+    private static final AtomicLong TERMINATED_ALLOCATED_BYTES = new AtomicLong();
+
+    private final List<Phase> phases = new ArrayList<>();
+    private final long start = System.nanoTime();
+    private final ScheduledExecutorService progress;
+    private volatile Phase current;
+    private boolean progressShown;
+
+    /**
+     * @param showProgress whether to keep a line with the progress of the current phase up to date
+     */
+    Metrics(boolean showProgress) {
+        if (THREADS.isThreadCpuTimeSupported() && !THREADS.isThreadCpuTimeEnabled()) {
+            THREADS.setThreadCpuTimeEnabled(true);
+        }
+        if (showProgress) {
+            progress = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            progress.scheduleAtFixedRate(this::showProgress, 1, 1, TimeUnit.SECONDS);
+        } else {
+            progress = null;
+        }
+    }
+
+    Phase start(String name) {
+        Phase phase = new Phase(name);
+        synchronized (this) {
+            phases.add(phase);
+        }
+        current = phase;
+        return phase;
+    }
+
+    List<Phase> getPhases() {
+        synchronized (this) {
+            return new ArrayList<>(phases);
+        }
+    }
+
+    private synchronized void showProgress() {
+        Phase phase = current;
+        if (phase == null || phase.wallTime >= 0) {
+            return;
+        }
+        System.out.print("\r[Jacoco comparison tool] " + phase.getProgress() + "\u001b[K");
+        System.out.flush();
+        progressShown = true;
+    }
+
+    /**
+     * Prints a line without mixing it up with the progress line.
+     */
+    synchronized void println(String line) {
+        if (progressShown) {
+            System.out.print("\r\u001b[K");
+            progressShown = false;
+        }
+        System.out.println(line);
+    }
+
+    synchronized void close() {
+        if (progress != null) {
+            progress.shutdownNow();
+        }
+        if (progressShown) {
+            System.out.print("\r\u001b[K");
+            progressShown = false;
+        }
+    }
+
+    void writeJson(File file) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writeJson(writer);
+        }
+    }
+
+    void writeJson(Writer writer) throws IOException {
+        writer.write("{\n  \"wallMillis\": " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        writer.write(",\n  \"phases\": [");
+        String separator = "\n";
+        for (Phase phase : getPhases()) {
+            writer.write(separator);
+            phase.writeJson(writer);
+            separator = ",\n";
+        }
+        writer.write("\n  ]\n}\n");
+    }
+
+    static String escape(String value) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < ' ') {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * A pool whose threads hand over their CPU time and allocations when they terminate.
+     */
+    static ForkJoinPool newForkJoinPool(int parallelism) {
+        return new ForkJoinPool(parallelism, pool -> new ForkJoinWorkerThread(pool) {
+            @Override
+            protected void onTermination(Throwable exception) {
+                threadTerminated();
+                super.onTermination(exception);
+            }
+        }, null, false);
+    }
+
+    /**
+     * A factory of daemon threads that hand over their CPU time and allocations when they terminate.
+     */
+    static ThreadFactory newThreadFactory() {
+        ThreadFactory threads = Executors.defaultThreadFactory();
+        return runnable -> {
+            Thread thread = threads.newThread(() -> {
+                try {
+                    runnable.run();
+                } finally {
+                    threadTerminated();
+                }
+            });
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static void threadTerminated() {
+        long cpuTime = THREADS.getCurrentThreadCpuTime();
+        if (cpuTime > 0) {
+            TERMINATED_CPU_TIME.addAndGet(cpuTime);
+        }
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            long allocated = ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+            if (allocated > 0) {
+                TERMINATED_ALLOCATED_BYTES.addAndGet(allocated);
+            }
+        }
+    }
+
+    /**
+     * @return CPU time and allocated bytes of all threads so far, -1 where the JVM doesn't measure them
+     */
+    private static long[] usage() {
+        long[] ids = THREADS.getAllThreadIds();
+        long cpuTime = -1;
+        long allocated = -1;
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadCpuTimeSupported()) {
+                cpuTime = TERMINATED_CPU_TIME.get() + sum(threads.getThreadCpuTime(ids));
+            }
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                allocated = TERMINATED_ALLOCATED_BYTES.get() + sum(threads.getThreadAllocatedBytes(ids));
+            }
+        } else if (THREADS.isThreadCpuTimeSupported()) {
+            cpuTime = TERMINATED_CPU_TIME.get();
+            for (long id : ids) {
+                cpuTime += Math.max(0, THREADS.getThreadCpuTime(id));
+            }
+        }
+        return new long[] {cpuTime, allocated};
+    }
+
+    private static long sum(long[] values) {
+        long sum = 0;
+        for (long value : values) {
+            // threads that terminated in the meantime are reported as -1
+            sum += Math.max(0, value);
+        }
+        return sum;
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024 * 1024) {
+            return (bytes + 1023) / 1024 + " KB";
+        }
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    /**
+     * A phase is measured from its start until it is closed, counters and progress may be updated from any thread.
+     */
+    class Phase implements AutoCloseable {
+
+        private final String name;
+        private final long startTime = System.nanoTime();
+        private final long[] startUsage = usage();
+        private final Map<String, AtomicLong> counters = new ConcurrentSkipListMap<>();
+        private final AtomicLong done = new AtomicLong();
+        private volatile long total;
+        private volatile long wallTime = -1;
+        private long cpuTime = -1;
+        private long allocated = -1;
+
+        private Phase(String name) {
+            this.name = name;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        void add(String counter, long delta) {
+            counters.computeIfAbsent(counter, key -> new AtomicLong()).addAndGet(delta);
+        }
+
+        long get(String counter) {
+            AtomicLong value = counters.get(counter);
+            return value == null ? 0 : value.get();
+        }
+
+        /**
+         * @param total number of steps of the phase, the progress line estimates the remaining time from it
+         */
+        void setTotal(long total) {
+            this.total = total;
+        }
+
+        void advance() {
+            done.incrementAndGet();
+        }
+
+        String getProgress() {
+            long elapsed = System.nanoTime() - startTime;
+            long done = this.done.get();
+            long total = this.total;
+            StringBuilder progress = new StringBuilder(name).append(": ").append(done);
+            if (total > 0) {
+                progress.append('/').append(total).append(" (").append(done * 100 / total).append("%)");
+                if (done > 0) {
+                    long remaining = elapsed / done * (total - done);
+                    progress.append(", ETA ").append(formatDuration(remaining));
+                }
+            }
+            return progress.append(", ").append(formatDuration(elapsed)).append(" elapsed").toString();
+        }
+
+        @Override
+        public void close() {
+            long[] usage = usage();
+            cpuTime = usage[0] < 0 ? -1 : usage[0] - startUsage[0];
+            allocated = usage[1] < 0 ? -1 : usage[1] - startUsage[1];
+            wallTime = System.nanoTime() - startTime;
+            println("[Jacoco comparison tool] Phase " + this);
+        }
+
+        private String formatDuration(long nanos) {
+            long seconds = TimeUnit.NANOSECONDS.toSeconds(nanos);
+            return seconds < 60 ? seconds + "s" : seconds / 60 + "m" + seconds % 60 + "s";
+        }
+
+        private void writeJson(Writer writer) throws IOException {
+            writer.write("    {\"name\": \"" + escape(name) + "\"");
+            writer.write(", \"wallMillis\": " + TimeUnit.NANOSECONDS.toMillis(wallTime));
+            writer.write(", \"cpuMillis\": " + (cpuTime < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(cpuTime)));
+            writer.write(", \"allocatedBytes\": " + allocated);
+            writer.write(", \"counters\": {");
+            String separator = "";
+            for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+                writer.write(separator + "\"" + escape(counter.getKey()) + "\": " + counter.getValue().get());
+                separator = ", ";
+            }
+            writer.write("}}");
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder string = new StringBuilder(name).append(": ")
+                    .append(TimeUnit.NANOSECONDS.toMillis(wallTime)).append(" ms");
+            if (cpuTime >= 0) {
+                string.append(", CPU ").append(TimeUnit.NANOSECONDS.toMillis(cpuTime)).append(" ms");
+            }
+            if (allocated >= 0) {
+                string.append(", allocated ").append(formatBytes(allocated));
+            }
+            for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+                long value = counter.getValue().get();
+                string.append(", ").append(counter.getKey()).append(' ')
+                        .append(counter.getKey().equals(BYTES_READ) ? formatBytes(value) : String.valueOf(value));
+            }
+            return string.toString();
+        }
+    }
+}
@@ -1,14 +1,23 @@
 package edu.cmu.jacoco;
 
-import edu.cmu.jacoco.Runner.LinesInfo;
+import org.jacoco.core.analysis.IBundleCoverage;
 import org.jacoco.core.analysis.ICounter;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.HashMap;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
 
 import static j2html.TagCreator.*;
 
@@ -18,227 +27,275 @@ public class NewReportGenerator {
     public static final String NOT_COVERED_COLOR = "#ff7a66";
     public static final String PARTLY_COVERED_COLOR = "#fff785";
 
-    private final List<File> sources;
+    // part of the page hashes, to be changed whenever the layout of the pages changes
+    private static final int PAGE_FORMAT = 2;
+
+    private final SourceIndex sources;
+    private final Scheduler scheduler;
     private File reportDirectory;
+    private ReportManifest manifest;
+    private String title = TITLE;
+    private int classCount;
+    private final AtomicLong sourceBytes = new AtomicLong();
+    private Metrics.Phase phase;
 
     public NewReportGenerator(File reportDirectory, List<File> sources) {
+        this(reportDirectory, new SourceIndex(sources), Scheduler.getDefault());
+    }
+
+    NewReportGenerator(File reportDirectory, SourceIndex sources, Scheduler scheduler) {
         this.reportDirectory = reportDirectory;
         this.sources = sources;
+        this.scheduler = scheduler;
     }
 
     private File createFile(String filePath) throws IOException {
-        String[] parts = filePath.split("/");
-        String fileName = parts.length == 1 ? parts[0] : parts[1];
-        File report = new File(reportDirectory, "/" + filePath);
-        if (!report.exists()) {
-            Files.createDirectories(Paths.get(new File(reportDirectory, "/" + filePath.replace(fileName, "")).getPath()));
-            report.createNewFile();
-        }
+        File report = new File(reportDirectory, filePath);
+        // createDirectories tolerates directories created concurrently by other pages
+        Files.createDirectories(report.getParentFile().toPath());
         return report;
     }
 
-    public void generateReport(LinesInfo baseCoverage, LinesInfo coverage) {
-        try {
-            generateIndex(baseCoverage, coverage);
-            generateClassesReports(baseCoverage, coverage);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+    public void setTitle(String title) {
+        this.title = title;
     }
 
-    private void generateIndex(LinesInfo baseCoverage, LinesInfo coverage) throws IOException {
-        HashMap<String, HashMap<String, LineInfo>> packages = getDifference(baseCoverage, coverage);
-        render(createFile("index.html"), document(
-            html(
-                head(
-                    title(TITLE)
-                ),
-                body(
-                    h2(TITLE),
-                    table(
-                        thead(
-                            tr(
-                                td("Package"), td("Class"), td("Partly covered"), td("Not covered")
-                            )
-                        ),
-                        tbody(
-                            each(packages.keySet(), packageName ->
-                                each(packages.get(packageName).keySet(), className -> tr(
-                                    td(packageName),
-                                    td(
-                                        a().withText(className).withHref(getPathToClassReport(packageName, className))
-                                    ),
-                                    td(packages.get(packageName).get(className).partlyCovered.toString()),
-                                    td(packages.get(packageName).get(className).notCovered.toString())
-                                ).withStyle("background-color:" + packages.get(packageName).get(className).color))
-                            )
-                        )
-                    )
-                )
-            )
-        ));
+    /**
+     * The phase advances with every class that is compared.
+     */
+    void setPhase(Metrics.Phase phase) {
+        this.phase = phase;
     }
 
-    private String getPathToClassReport(String packageName, String className) {
-        return packageName + "/" + className + ".java.html";
+    public void generateReport(LineCoverage baseCoverage, LineCoverage coverage) {
+        generateReport(baseCoverage, coverage, id -> true);
     }
 
-    private void generateClassesReports(LinesInfo baseCoverage, LinesInfo coverage) throws IOException {
-        for (String packageName : baseCoverage.keySet()) {
-            for (String className : baseCoverage.get(packageName).keySet()) {
-                generateClassReport(packageName, className, baseCoverage, coverage);
-            }
-        }
+    /**
+     * Only reports the classes the filter accepts.
+     */
+    public void generateReport(LineCoverage baseCoverage, LineCoverage coverage, LongPredicate classFilter) {
+        generateReport(pages -> new DifferenceCalculator().calculate(baseCoverage, coverage, classFilter, pages));
     }
 
-    private void generateClassReport(
-            String packageName, String className, LinesInfo baseCoverage, LinesInfo coverage
-    ) throws IOException {
-        Optional<BufferedReader> optionalBufferedReader = getSourceFileReader(packageName, className);
-        if (!optionalBufferedReader.isPresent()) {
-            return;
-        }
-
-        File classReport = createFile(getPathToClassReport(packageName, className));
-        BufferedWriter writer = new BufferedWriter(new FileWriter(classReport));
-        BufferedReader reader = optionalBufferedReader.get();
-
-        String line;
-        int linePosition = 0;
-
-        writer.write("<!DOCTYPE html><html><head><title>" + className + "</title>" +
-            "<link rel=\"stylesheet\" href=\"https://cdnjs.cloudflare.com/ajax/libs/highlight.js/9.13.1/styles/default.min.css\">" +
-            "<script src=\"https://cdn.jsdelivr.net/gh/highlightjs/cdn-release@9.13.1/build/highlight.min.js\"></script>" +
-            "<script>hljs.initHighlightingOnLoad();</script></head>");
-        writer.write("<body><pre><code>");
-
-        while ((line = reader.readLine()) != null) {
-            linePosition++;
-
-            LINE_STATUS baseInfoLineStatus = getLineStatus(baseCoverage, packageName, className, linePosition);
-            if (baseInfoLineStatus == LINE_STATUS.NOT_COVERED) {
-                writer.write(line);
-                writer.write("\n");
-                continue;
-            }
-
-            LINE_STATUS infoLineStatus = getLineStatus(coverage, packageName, className, linePosition);
-            if (infoLineStatus == LINE_STATUS.FULLY_COVERED) {
-                writer.write(line);
-                writer.write("\n");
-                continue;
-            }
-
-            String color = infoLineStatus == LINE_STATUS.NOT_COVERED ? NOT_COVERED_COLOR : PARTLY_COVERED_COLOR;
-            writer.write("<span style=\"background-color:" + color + "\">");
-            writer.write(line);
-            writer.write("</span>\n");
-        }
-
-        writer.write("</code></pre></body></html>");
+    public void generateReport(IBundleCoverage baseCoverage, IBundleCoverage coverage) {
+        generateReport(baseCoverage, coverage, id -> true);
+    }
 
-        writer.close();
-        reader.close();
+    /**
+     * Only reports the classes the filter accepts.
+     */
+    public void generateReport(IBundleCoverage baseCoverage, IBundleCoverage coverage, LongPredicate classFilter) {
+        generateReport(pages -> new DifferenceCalculator().calculate(baseCoverage, coverage, classFilter, pages));
     }
 
-    private Optional<BufferedReader> getSourceFileReader(String packageName, String className) {
-        String filePath = packageName.replaceAll("\\.", "/");
-        String fileName = className.concat(".java").replaceFirst("\\$[a-zA-Z_0-9]+", "");
-        return sources.stream()
-                .map(d -> new File(d, filePath + "/" + fileName))
-                .filter(File::exists)
-                .map(file -> {
+    /**
+     * The index is written on the calling thread while every page is a task of its own on the I/O executor. The pages
+     * are chained into as many lanes as files may be written at a time, so that no task waits for a free slot, and no
+     * more pages are queued once one of them failed. Only the calling thread waits for the pages, at the end.
+     */
+    @SuppressWarnings("unchecked")
+    private void generateReport(Consumer<Consumer<ClassDifference>> differences) {
+        CompletableFuture<Void>[] lanes = new CompletableFuture[scheduler.getIoParallelism()];
+        Arrays.fill(lanes, CompletableFuture.completedFuture(null));
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        try (IndexWriter index = new IndexWriter(createFile("index.html"), title)) {
+            manifest = new ReportManifest(reportDirectory);
+            classCount = 0;
+            differences.accept(difference -> {
+                Throwable failed = failure.get();
+                if (failed != null) {
+                    throw new CompletionException(failed);
+                }
+                String packageName = difference.getPackageName();
+                String className = difference.getClassName();
+                if (phase != null) {
+                    phase.advance();
+                }
+                int lane = classCount % lanes.length;
+                try {
+                    classCount++;
+                    index.write(packageName, className, getPathToClassReport(packageName, className),
+                            difference.getPartlyCovered(), difference.getNotCovered(), getColor(difference));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                lanes[lane] = lanes[lane].thenRunAsync(() -> {
                     try {
-                        return new FileReader(file);
-                    } catch (FileNotFoundException e) {
-                        throw new RuntimeException(e);
+                        generateClassReport(difference);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, scheduler.io()).whenComplete((result, e) -> {
+                    if (e != null) {
+                        failure.compareAndSet(null, e instanceof CompletionException ? e.getCause() : e);
                     }
-                })
-                .map(BufferedReader::new)
-                .findFirst();
+                });
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            // the pages already queued are done, one way or the other, before the report is
+            CompletableFuture.allOf(lanes).handle((result, e) -> null).join();
+        }
 
-    }
+        if (failure.get() != null) {
+            throw new RuntimeException(failure.get());
+        }
 
-    private enum LINE_STATUS {
-        FULLY_COVERED,
-        PARTLY_COVERED,
-        NOT_COVERED
+        try {
+            manifest.write();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
-    private HashMap<String, HashMap<String, LineInfo>> getDifference(LinesInfo baseCoverage, LinesInfo coverage) {
-        HashMap<String, HashMap<String, LineInfo>> packages = new HashMap<>();
-        for (String packageName : baseCoverage.keySet()) {
-            for (String className : baseCoverage.get(packageName).keySet()) {
-                HashMap<Integer, Integer> baseClassCoverage = baseCoverage.get(packageName).get(className);
-
-                for (Integer lineNumber : baseClassCoverage.keySet()) {
-                    LINE_STATUS lineStatus = getLineStatus(coverage, packageName, className, lineNumber);
+    ReportManifest getManifest() {
+        return manifest;
+    }
 
-                    if (lineStatus == LINE_STATUS.FULLY_COVERED) {
-                        continue;
-                    }
+    /**
+     * @return number of classes with differences in the last report
+     */
+    int getClassCount() {
+        return classCount;
+    }
 
-                    HashMap<String, LineInfo> classes = packages.computeIfAbsent(packageName, k -> new HashMap<>());
-                    LineInfo lineInfo = classes.get(className);
-                    if (lineInfo == null) {
-                        lineInfo = new LineInfo();
-                        classes.put(className, lineInfo);
-                    }
+    /**
+     * @return number of source bytes read for the pages of all reports of this generator
+     */
+    long getSourceBytes() {
+        return sourceBytes.get();
+    }
 
-                    if (lineStatus == LINE_STATUS.PARTLY_COVERED) {
-                        lineInfo.partlyCovered++;
-                        lineInfo.color = getColor(lineInfo, PARTLY_COVERED_COLOR);
-                    } else {
-                        lineInfo.notCovered++;
-                        lineInfo.color = getColor(lineInfo, NOT_COVERED_COLOR);
-                    }
-                }
-            }
+    /**
+     * Writes the index.html that links the reports of all compared suites.
+     */
+    static void generateComparisonIndex(File reportDirectory, List<SuiteComparison> comparisons, List<Integer> classCounts) {
+        List<Integer> rows = new ArrayList<>();
+        for (int i = 0; i < comparisons.size(); i++) {
+            rows.add(i);
+        }
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(reportDirectory, "index.html")))) {
+            writer.write(document(
+                html(
+                    head(
+                        title(TITLE)
+                    ),
+                    body(
+                        h2(TITLE),
+                        table(
+                            thead(
+                                tr(
+                                    td("Covered by"), td("Not fully covered by"), td("Classes")
+                                )
+                            ),
+                            tbody(
+                                each(rows, i -> tr(
+                                    td(comparisons.get(i).baseTitle),
+                                    td(comparisons.get(i).candidateTitle),
+                                    td(
+                                        a().withText(String.valueOf(classCounts.get(i)))
+                                                .withHref(comparisons.get(i).getDirectory() + "/index.html")
+                                    )
+                                ))
+                            )
+                        )
+                    )
+                )
+            ));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
-        return packages;
     }
 
-    private static class LineInfo {
-        String color = NOT_COVERED_COLOR;
-        Integer notCovered = 0;
-        Integer partlyCovered = 0;
+    private String getPathToClassReport(String packageName, String className) {
+        return packageName + "/" + className + ".java.html";
     }
 
-    private LINE_STATUS getLineStatus(LinesInfo info, String packageName, String className, int line) {
-        HashMap<String, HashMap<Integer, Integer>> classesInfo = info.get(packageName);
-
-        if (classesInfo == null) {
-            return LINE_STATUS.NOT_COVERED;
+    private void generateClassReport(ClassDifference difference) throws IOException {
+        String packageName = difference.getPackageName();
+        String className = difference.getClassName();
+        File source = sources.find(packageName, className);
+        if (source == null) {
+            return;
         }
 
-        HashMap<Integer, Integer> linesInfo = classesInfo.get(className);
-
-        if (linesInfo == null || linesInfo.get(line) == null) {
-            return LINE_STATUS.NOT_COVERED;
+        byte[] content = Files.readAllBytes(source.toPath());
+        sourceBytes.addAndGet(content.length);
+        String path = getPathToClassReport(packageName, className);
+        String hash = hash(className, content, difference);
+        if (manifest.isUnchanged(path, hash)) {
+            return;
         }
 
-        if (linesInfo.get(line).equals(ICounter.FULLY_COVERED)) {
-            return LINE_STATUS.FULLY_COVERED;
-        }
+        File classReport = createFile(path);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(content)));
+             BufferedWriter writer = new BufferedWriter(new FileWriter(classReport))) {
+            JavaHighlighter highlighter = new JavaHighlighter();
+            StringBuilder html = new StringBuilder();
+            String line;
+            int linePosition = 0;
+            int next = 0;
+
+            html.append("<!DOCTYPE html><html><head><title>");
+            JavaHighlighter.escape(className, 0, className.length(), html);
+            html.append("</title><style>").append(JavaHighlighter.STYLE).append("</style></head>");
+            html.append("<body><pre><code>");
+            writer.write(html.toString());
+
+            while ((line = reader.readLine()) != null) {
+                linePosition++;
+                html.setLength(0);
+
+                if (next == difference.getLineCount() || difference.getLine(next) != linePosition) {
+                    highlighter.highlight(line, html);
+                    html.append('\n');
+                    writer.write(html.toString());
+                    continue;
+                }
 
-        if (linesInfo.get(line).equals(ICounter.PARTLY_COVERED)) {
-            return LINE_STATUS.PARTLY_COVERED;
-        }
+                String color = difference.getStatus(next++) == ICounter.NOT_COVERED ? NOT_COVERED_COLOR : PARTLY_COVERED_COLOR;
+                html.append("<span style=\"background-color:").append(color).append("\">");
+                highlighter.highlight(line, html);
+                html.append("</span>\n");
+                writer.write(html.toString());
+            }
 
-        return LINE_STATUS.NOT_COVERED;
+            writer.write("</code></pre></body></html>");
+        }
+        manifest.written(path, hash);
     }
 
-    private String getColor(LineInfo lineInfo, String newColor) {
-        if (lineInfo.color.equals(PARTLY_COVERED_COLOR) || newColor.equals(PARTLY_COVERED_COLOR)) {
-            return PARTLY_COVERED_COLOR;
-        } else {
-            return NOT_COVERED_COLOR;
+    /**
+     * Hashes everything the page is rendered from: the class name, the source and the highlighted lines.
+     */
+    private static String hash(String className, byte[] source, ClassDifference difference) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 5 * difference.getLineCount());
+        buffer.putInt(PAGE_FORMAT).putInt(difference.getLineCount());
+        for (int i = 0; i < difference.getLineCount(); i++) {
+            buffer.putInt(difference.getLine(i)).put((byte) difference.getStatus(i));
+        }
+        digest.update(buffer.array());
+        digest.update(className.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(source);
+
+        StringBuilder hash = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hash.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
         }
+        return hash.toString();
     }
 
-    private void render(File file, String content) throws IOException {
-        BufferedWriter writer = new BufferedWriter(new FileWriter(file));
-        writer.write(content);
-        writer.close();
+    private String getColor(ClassDifference difference) {
+        return difference.getPartlyCovered() > 0 ? PARTLY_COVERED_COLOR : NOT_COVERED_COLOR;
     }
 }
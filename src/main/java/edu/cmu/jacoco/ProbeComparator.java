@@ -0,0 +1,97 @@
+package edu.cmu.jacoco;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Compares the raw probes of two suites before any class is analyzed. {@link DifferenceCalculator} reports every line
+ * the baseline covers that the candidate doesn't cover fully, which includes lines partly covered by both suites, so a
+ * class can only be skipped when none of its lines can be reported: the baseline hits every probe of the class, which
+ * leaves no line partly covered, and the candidate hits all of them too. Every other class has to be analyzed.
+ */
+class ProbeComparator {
+
+    enum Result {
+        IDENTICAL,
+        CANDIDATE_SUPERSET,
+        REGRESSED
+    }
+
+    /**
+     * Classifies every class with hits in the baseline store.
+     */
+    Comparison compare(ExecutionDataStore baseline, ExecutionDataStore candidate) {
+        Comparison comparison = new Comparison();
+        for (ExecutionData data : baseline.getContents()) {
+            if (!data.hasHits()) {
+                continue;
+            }
+            ExecutionData candidateData = candidate.get(data.getId());
+            Result result = compare(data.getProbes(), candidateData == null ? null : candidateData.getProbes());
+            comparison.add(data.getId(), result, result == Result.REGRESSED || !isComplete(data.getProbes()));
+        }
+        return comparison;
+    }
+
+    private static boolean isComplete(boolean[] probes) {
+        for (boolean probe : probes) {
+            if (!probe) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static Result compare(boolean[] baseline, boolean[] candidate) {
+        if (candidate == null || candidate.length != baseline.length) {
+            return Result.REGRESSED;
+        }
+        boolean identical = true;
+        for (int i = 0; i < baseline.length; i++) {
+            if (baseline[i] && !candidate[i]) {
+                return Result.REGRESSED;
+            }
+            identical &= baseline[i] == candidate[i];
+        }
+        return identical ? Result.IDENTICAL : Result.CANDIDATE_SUPERSET;
+    }
+
+    static class Comparison {
+
+        private final LongSet mayDiffer = new LongSet();
+        private final Map<Result, Integer> counts = new EnumMap<>(Result.class);
+
+        private void add(long classId, Result result, boolean mayDiffer) {
+            counts.merge(result, 1, Integer::sum);
+            if (mayDiffer) {
+                this.mayDiffer.add(classId);
+            }
+        }
+
+        /**
+         * @return whether the class has to be analyzed because lines of it may be reported
+         */
+        boolean mayDiffer(long classId) {
+            return mayDiffer.contains(classId);
+        }
+
+        int countMayDiffer() {
+            return mayDiffer.size();
+        }
+
+        int count(Result result) {
+            return counts.getOrDefault(result, 0);
+        }
+
+        @Override
+        public String toString() {
+            return count(Result.IDENTICAL) + " identical, "
+                    + count(Result.CANDIDATE_SUPERSET) + " covered by the second suite, "
+                    + count(Result.REGRESSED) + " regressed, "
+                    + countMayDiffer() + " to analyze";
+        }
+    }
+}
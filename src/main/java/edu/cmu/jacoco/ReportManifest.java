@@ -0,0 +1,119 @@
+package edu.cmu.jacoco;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashes of the inputs of every page in a report directory, one "hash path" line per page. A page whose inputs have
+ * the same hash as in the previous run is not written again, pages of the previous run that are not produced any more
+ * are deleted when the manifest is written. Lines that don't name a page inside the report directory are ignored, so
+ * that a damaged or planted manifest can't delete anything else.
+ */
+class ReportManifest {
+
+    static final String FILE_NAME = "report.manifest";
+
+    private static final String PAGE_SUFFIX = ".java.html";
+
+    private final File reportDirectory;
+    private final Map<String, String> previous = new HashMap<>();
+    private final Map<String, String> current = new ConcurrentHashMap<>();
+
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private int deleted = 0;
+
+    /**
+     * Reads the manifest of the previous run and removes it, so that a run that fails halfway leaves no manifest and
+     * the next run writes every page.
+     */
+    ReportManifest(File reportDirectory) throws IOException {
+        this.reportDirectory = reportDirectory;
+        File file = new File(reportDirectory, FILE_NAME);
+        if (!file.isFile()) {
+            return;
+        }
+        Path directory = reportDirectory.getCanonicalFile().toPath();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf(' ');
+                if (separator > 0 && isPage(directory, line.substring(separator + 1))) {
+                    previous.put(line.substring(separator + 1), line.substring(0, separator));
+                }
+            }
+        }
+        Files.delete(file.toPath());
+    }
+
+    private boolean isPage(Path directory, String path) throws IOException {
+        if (!path.endsWith(PAGE_SUFFIX) || new File(path).isAbsolute()) {
+            return false;
+        }
+        Path page = new File(reportDirectory, path).getCanonicalFile().toPath();
+        return page.startsWith(directory) && !page.equals(directory);
+    }
+
+    /**
+     * @return true if the page exists and was written from inputs with the same hash, it is then kept as it is
+     */
+    boolean isUnchanged(String path, String hash) {
+        if (hash.equals(previous.get(path)) && new File(reportDirectory, path).isFile()) {
+            current.put(path, hash);
+            unchanged.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    void written(String path, String hash) {
+        current.put(path, hash);
+        written.incrementAndGet();
+    }
+
+    /**
+     * Deletes the pages of the previous run that were not produced in this run and writes the new manifest.
+     */
+    void write() throws IOException {
+        for (String path : previous.keySet()) {
+            if (!current.containsKey(path) && new File(reportDirectory, path).delete()) {
+                deleted++;
+            }
+        }
+
+        File temp = File.createTempFile("manifest", ".tmp", reportDirectory);
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(temp))) {
+            for (Map.Entry<String, String> entry : current.entrySet()) {
+                writer.write(entry.getValue());
+                writer.write(' ');
+                writer.write(entry.getKey());
+                writer.write('\n');
+            }
+        }
+        Files.move(temp.toPath(), new File(reportDirectory, FILE_NAME).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    int getWritten() {
+        return written.get();
+    }
+
+    int getUnchanged() {
+        return unchanged.get();
+    }
+
+    @Override
+    public String toString() {
+        return written.get() + " written, " + unchanged.get() + " unchanged, " + deleted + " deleted";
+    }
+}
@@ -1,198 +1,304 @@
 package edu.cmu.jacoco;
 
+import edu.cmu.jacoco.async.IStructureCache;
+import edu.cmu.jacoco.async.StringPool;
+import edu.cmu.jacoco.async.StructureCache;
 import org.apache.commons.cli.ParseException;
 import org.jacoco.core.analysis.IBundleCoverage;
-import org.jacoco.core.analysis.IClassCoverage;
-import org.jacoco.core.analysis.ICounter;
-import org.jacoco.core.analysis.IPackageCoverage;
 import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentSkipListSet;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongPredicate;
 import java.util.stream.Collectors;
 
-import static java.lang.Runtime.getRuntime;
-import static java.util.concurrent.Executors.newFixedThreadPool;
-
 public class Runner {
 
-    public static void main(final String[] args) throws ParseException, IOException, ExecutionException, InterruptedException {
+    public static void main(final String[] args) throws IOException {
         System.out.println("[Jacoco comparison tool] Start: " + new Date().toString());
 
         ArgumentsExtractor argumentsExtractor = new ArgumentsExtractor();
-        ArgumentsExtractor.Arguments arguments = argumentsExtractor.extractArguments(args);
-
-        List<IBundleCoverage> coverage = analyze(
-                arguments.first.stream().map(File::new).collect(Collectors.toList()),
-                arguments.second.stream().map(File::new).collect(Collectors.toList()),
-                getClasses(arguments).stream().map(File::new).filter(File::exists).collect(Collectors.toList())
-        );
-
-        System.out.println("[Jacoco comparison tool] Stop analyze coverage: " + new Date().toString());
-
-        IBundleCoverage firstCoverage = coverage.get(0);
-        IBundleCoverage secondCoverage = coverage.get(1);
-
-        LinesInfo firstFileInfo = getInfo(firstCoverage);
-        LinesInfo secondFileInfo = getInfo(secondCoverage);
-
-        System.out.println("[Jacoco comparison tool] Stop calculating info for report: " + new Date().toString());
+        ArgumentsExtractor.Arguments arguments;
+        try {
+            arguments = argumentsExtractor.extractArguments(args);
+        } catch (ParseException e) {
+            System.err.println("[Jacoco comparison tool] " + e.getMessage());
+            argumentsExtractor.printUsage();
+            System.exit(1);
+            return;
+        }
 
-        List<File> sources = getSources(arguments).stream()
-                .map(File::new).filter(File::exists).collect(Collectors.toList());
+        Scheduler scheduler = new Scheduler(arguments.threads, arguments.ioThreads);
+        System.out.println("[Jacoco comparison tool] Scheduler: " + scheduler);
+
+        StructureCache structureCache = arguments.cache == null
+                ? null : new StructureCache(new File(arguments.cache), arguments.cacheSize);
+
+        if (arguments.daemon >= 0) {
+            // the classes and the execution data share the memory
+            String token = ComparisonDaemon.getToken(arguments.tokenFile);
+            ComparisonDaemon daemon = new ComparisonDaemon(arguments.daemon, token, scheduler,
+                    new MemoryStructureCache(arguments.memoryCacheSize / 2, structureCache),
+                    new ExecutionDataCache(arguments.memoryCacheSize / 2));
+            daemon.start();
+            System.out.println("[Jacoco comparison tool] Daemon: " + daemon);
+            if (arguments.tokenFile == null) {
+                System.out.println("[Jacoco comparison tool] Token: " + token);
+            }
+            return;
+        }
 
-        new NewReportGenerator(new File(arguments.report), sources).generateReport(firstFileInfo, secondFileInfo);
+        // the progress line is only useful on a terminal, it would clutter logs
+        Metrics metrics = new Metrics(System.console() != null);
+        Workspace workspace;
+        try (Metrics.Phase phase = metrics.start("discovery")) {
+            workspace = Workspace.discover(arguments, scheduler, null, phase);
+        }
+        compare(arguments, workspace, structureCache, null, scheduler, metrics);
 
+        scheduler.close();
+        metrics.close();
+        if (arguments.metrics != null) {
+            metrics.writeJson(new File(arguments.metrics));
+        }
 
         System.out.println("[Jacoco comparison tool] Stop: " + new Date().toString());
     }
 
-    private static List<String> getClasses(ArgumentsExtractor.Arguments arguments) {
-        if (arguments.classes.isEmpty()) {
-            List<String> javac = new LinkedList<>();
-            visit(new File(arguments.root), javac, file -> file.getName().equals("javac"));
-            List<String> classes = new LinkedList<>();
-            for (String path: javac) {
-                visit(new File(path), classes, file -> file.getName().equals("classes"));
-            }
-            return classes;
-        } else {
-            return arguments.classes;
-        }
-    }
+    /**
+     * Compares the suites of the arguments and writes the reports.
+     *
+     * @param workspace the classes and sources to compare
+     * @param structureCache the cache of the class structures, or null
+     * @param executionDataCache the cache of the execution data files, or null
+     * @return the report generator of every comparison, after it has written its report
+     */
+    static Map<SuiteComparison, NewReportGenerator> compare(
+            ArgumentsExtractor.Arguments arguments,
+            Workspace workspace,
+            IStructureCache structureCache,
+            ExecutionDataCache executionDataCache,
+            Scheduler scheduler,
+            Metrics metrics
+    ) throws IOException {
+        List<List<File>> suites = arguments.suites.stream()
+                .map(suite -> suite.stream().map(File::new).collect(Collectors.toList()))
+                .collect(Collectors.toList());
+        List<SuiteComparison> comparisons = arguments.allPairs
+                ? SuiteComparison.allPairs(arguments.titles)
+                : Collections.singletonList(new SuiteComparison(0, 1, arguments.titles.get(0),
+                        arguments.titles.size() > 1 ? arguments.titles.get(1) : ""));
+
+        List<ProbeComparator.Comparison> probeComparisons = new ArrayList<>();
+        Reports reports = analyze(
+                suites,
+                comparisons,
+                probeComparisons,
+                workspace.classes,
+                structureCache,
+                executionDataCache,
+                arguments.linesOnly,
+                scheduler,
+                metrics
+        );
 
-    private static List<String> getSources(ArgumentsExtractor.Arguments arguments) {
-        if (arguments.sources.isEmpty()) {
-            List<String> src = new LinkedList<>();
-            visit(new File(arguments.root), src, file -> file.getName().equals("src"));
-            List<String> main = new LinkedList<>();
-            for (String path: src) {
-                visit(new File(path), main, file -> file.getName().equals("main"));
-            }
-            List<String> java = new LinkedList<>();
-            for (String path: main) {
-                visit(new File(path), java, file -> file.getName().equals("java"));
-            }
-            return java;
-        } else {
-            return arguments.sources;
+        if (structureCache != null) {
+            metrics.println("[Jacoco comparison tool] Structure cache: " + structureCache);
         }
-    }
-
-    private static void visit(File directory, List<String> directories, PathStoreStrategy pathStoreStrategy) {
-        File[] files = directory.listFiles();
-
-        if (files == null) {
-            return;
+        if (executionDataCache != null) {
+            metrics.println("[Jacoco comparison tool] Execution data cache: " + executionDataCache);
         }
 
-        for (File file: files) {
-            if (file.isDirectory()) {
-                if (pathStoreStrategy.shouldBeStored(file)) {
-                    directories.add(file.getAbsolutePath());
+        metrics.println("[Jacoco comparison tool] Stop analyze coverage: " + new Date().toString());
+
+        Map<SuiteComparison, NewReportGenerator> reportGenerators = new LinkedHashMap<>();
+        File reportDirectory = new File(arguments.report);
+        if (arguments.allPairs) {
+            List<Integer> differences = new ArrayList<>();
+            for (SuiteComparison comparison : comparisons) {
+                ProbeComparator.Comparison probeComparison = probeComparisons.get(comparisons.indexOf(comparison));
+                try (Metrics.Phase phase = metrics.start("report " + comparison)) {
+                    NewReportGenerator reportGenerator = new NewReportGenerator(
+                            new File(reportDirectory, comparison.getDirectory()), workspace.sources, scheduler);
+                    reportGenerator.setTitle(NewReportGenerator.TITLE + ": " + comparison);
+                    reportGenerator.setPhase(phase);
+                    // at most the classes that may differ have lines to report
+                    phase.setTotal(probeComparison.countMayDiffer());
+                    // classes both suites cover completely are only analyzed for the other comparisons
+                    reports.generate(reportGenerator, comparison, probeComparison::mayDiffer);
+                    differences.add(reportGenerator.getClassCount());
+                    reportGenerators.put(comparison, reportGenerator);
+                    count(phase, reportGenerator);
+
+                    metrics.println("[Jacoco comparison tool] Pages " + comparison + ": " + reportGenerator.getManifest());
                 }
-
-                visit(file, directories, pathStoreStrategy);
+            }
+            NewReportGenerator.generateComparisonIndex(reportDirectory, comparisons, differences);
+        } else {
+            try (Metrics.Phase phase = metrics.start("report")) {
+                NewReportGenerator reportGenerator = new NewReportGenerator(reportDirectory, workspace.sources, scheduler);
+                reportGenerator.setPhase(phase);
+                phase.setTotal(probeComparisons.get(0).countMayDiffer());
+                reports.generate(reportGenerator, comparisons.get(0), probeComparisons.get(0)::mayDiffer);
+                reportGenerators.put(comparisons.get(0), reportGenerator);
+                count(phase, reportGenerator);
+
+                metrics.println("[Jacoco comparison tool] Pages: " + reportGenerator.getManifest());
             }
         }
-    }
-
-    private static List<IBundleCoverage> analyze(
-            List<File> firstFiles,
-            List<File> secondFiles,
-            List<File> classesDirectory
-    ) throws IOException, ExecutionException, InterruptedException {
-        ExecutorService executorService = newFixedThreadPool(getRuntime().availableProcessors() * 2 + 1);
-        CoverageAnalyzer analyzer = new CoverageAnalyzer(classesDirectory, executorService);
-        ClassNamesCollector classNamesCollector = new ClassNamesCollector();
-        ExecutionDataVisitor.StoreStrategy firstFileClasses = data -> classNamesCollector.contains(data.getName());
 
-        IBundleCoverage manualCoverage = analyzer.analyze(classNamesCollector, firstFiles);
-
-        List<File> allFiles = new ArrayList<>();
-        allFiles.addAll(firstFiles);
-        allFiles.addAll(secondFiles);
-
-        Future<IBundleCoverage> coverage = executorService.submit(
-                () -> analyzer.analyze(firstFileClasses, secondFiles));
-        Future<IBundleCoverage> mergedCoverage = executorService.submit(
-                () -> analyzer.analyze(firstFileClasses, allFiles));
-
-        List<IBundleCoverage> result = Arrays.asList(manualCoverage, coverage.get(), mergedCoverage.get());
-
-        executorService.shutdown();
-
-        return result;
+        metrics.println("[Jacoco comparison tool] Sources: " + workspace.sources);
+        return reportGenerators;
     }
 
-    private static LinesInfo getInfo(IBundleCoverage coverage) {
-        // package ( class, (line number, status))
-        HashMap<String, HashMap<String, HashMap<Integer, Integer>>> info = new HashMap<>();
-        for (IPackageCoverage packageCoverage: coverage.getPackages()) {
-            String packageName = packageCoverage.getName().replace('/', '.');
-            HashMap<String, HashMap<Integer, Integer>> packageClasses = info.get(packageName);
-
-            for (IClassCoverage classCoverage: packageCoverage.getClasses()) {
-                int firstLineWithCoverage = classCoverage.getFirstLine();
-                if (firstLineWithCoverage == -1) {
-                    continue;
-                }
+    /**
+     * Differences are calculated while the pages are written, so both are counted in one phase.
+     */
+    private static void count(Metrics.Phase phase, NewReportGenerator reportGenerator) {
+        ReportManifest manifest = reportGenerator.getManifest();
+        phase.add(Metrics.CLASSES, reportGenerator.getClassCount());
+        phase.add(Metrics.BYTES_READ, reportGenerator.getSourceBytes());
+        phase.add("pages written", manifest.getWritten());
+        phase.add("pages unchanged", manifest.getUnchanged());
+    }
 
-                String[] classNameParts = classCoverage.getName().split("/");
-                String className = classNameParts[classNameParts.length - 1];
-                HashMap<Integer, Integer> classLines = packageClasses == null ? null : packageClasses.get(className);
+    /**
+     * Analyzes every class once for all suites. The union of all suites is only loaded if a comparison needs it.
+     *
+     * @param results receives the probe comparison of every suite comparison
+     * @param linesOnly whether to only keep the line statuses of every suite instead of its full coverage
+     * @return the reports on the coverage of every suite and of the union
+     */
+    private static Reports analyze(
+            List<List<File>> suites,
+            List<SuiteComparison> comparisons,
+            List<ProbeComparator.Comparison> results,
+            List<File> classesDirectory,
+            IStructureCache structureCache,
+            ExecutionDataCache executionDataCache,
+            boolean linesOnly,
+            Scheduler scheduler,
+            Metrics metrics
+    ) throws IOException {
+        CoverageAnalyzer analyzer = new CoverageAnalyzer(classesDirectory, scheduler);
+        analyzer.setStructureCache(structureCache);
+        analyzer.setExecutionDataCache(executionDataCache);
+
+        List<List<File>> storeFiles = new ArrayList<>(suites);
+        int union = suites.size();
+        if (comparisons.stream().anyMatch(comparison -> comparison.base == union || comparison.candidate == union)) {
+            List<File> allFiles = new ArrayList<>();
+            suites.forEach(allFiles::addAll);
+            storeFiles.add(allFiles);
+        }
 
-                for (int linePosition = firstLineWithCoverage; linePosition < classCoverage.getLastLine(); linePosition++) {
-                    int status = classCoverage.getLine(linePosition).getStatus();
-                    if (status == ICounter.NOT_COVERED || status == ICounter.EMPTY) {
-                        continue;
-                    }
+        boolean[] isBase = new boolean[storeFiles.size()];
+        comparisons.forEach(comparison -> isBase[comparison.base] = true);
 
-                    if (packageClasses == null) {
-                        packageClasses = new HashMap<>();
-                        info.put(packageName, packageClasses);
-                    }
+        List<ExecutionDataStore> executionData = new ArrayList<>();
+        try (Metrics.Phase phase = metrics.start("load")) {
+            List<CompletableFuture<ExecutionDataStore>> stores = new ArrayList<>();
+            for (int i = 0; i < storeFiles.size(); i++) {
+                stores.add(isBase[i] ? analyzer.load(data -> true, storeFiles.get(i)) : null);
+            }
 
-                    if (classLines == null) {
-                        classLines = new HashMap<>();
-                        packageClasses.put(className, classLines);
+            // the other suites only matter for classes a base suite executed
+            List<CompletableFuture<ExecutionDataStore>> baseStores = stores.stream()
+                    .filter(Objects::nonNull).collect(Collectors.toList());
+            CompletableFuture<LongSet> baseClasses = CompletableFuture.allOf(
+                    baseStores.toArray(new CompletableFuture[0])
+            ).thenApply(loaded -> {
+                LongSet classIds = new LongSet();
+                for (CompletableFuture<ExecutionDataStore> store : baseStores) {
+                    // already completed
+                    for (ExecutionData data : store.join().getContents()) {
+                        if (data.hasHits()) {
+                            classIds.add(data.getId());
+                        }
                     }
-
-                    classLines.put(linePosition, status);
+                }
+                return classIds;
+            });
+            for (int i = 0; i < storeFiles.size(); i++) {
+                List<File> files = storeFiles.get(i);
+                if (!isBase[i]) {
+                    stores.set(i, baseClasses.thenCompose(classIds -> analyzer.load(classIds, files)));
                 }
             }
-        }
-        return new LinesInfo(info);
-    }
 
-    private static class ClassNamesCollector implements ExecutionDataVisitor.StoreStrategy {
+            for (CompletableFuture<ExecutionDataStore> store : stores) {
+                executionData.add(Scheduler.join(store));
+            }
 
-        private final Set<String> classes = new ConcurrentSkipListSet<>();
+            for (int i = 0; i < storeFiles.size(); i++) {
+                for (File file : storeFiles.get(i)) {
+                    phase.add(Metrics.BYTES_READ, file.length());
+                }
+                for (ExecutionData data : executionData.get(i).getContents()) {
+                    phase.add(Metrics.CLASSES, 1);
+                    phase.add(Metrics.PROBES, data.getProbes().length);
+                }
+            }
 
-        @Override
-        public boolean shouldBeStored(ExecutionData data) {
-            classes.add(data.getName()); // add full class path to set
-            return true;
+            // only classes both suites cover completely can't have lines to report
+            for (SuiteComparison comparison : comparisons) {
+                ProbeComparator.Comparison result = new ProbeComparator()
+                        .compare(executionData.get(comparison.base), executionData.get(comparison.candidate));
+                metrics.println("[Jacoco comparison tool] Classes"
+                        + (comparisons.size() > 1 ? " " + comparison : "") + ": " + result);
+                results.add(result);
+            }
         }
-
-        boolean contains(String className) {
-            return classes.contains(className);
+        analyzer.setClassFilter(id -> results.stream().anyMatch(result -> result.mayDiffer(id)));
+
+        Reports reports;
+        try (Metrics.Phase phase = metrics.start("analysis")) {
+            analyzer.setPhase(phase);
+            if (linesOnly) {
+                List<LineCoverage> lines = analyzer.analyzeLines(executionData);
+                for (int i = 0; i < lines.size(); i++) {
+                    phase.add(Metrics.CLASSES + " " + getTitle(comparisons, i), lines.get(i).getClasses().size());
+                }
+                reports = (reportGenerator, comparison, classFilter) -> reportGenerator.generateReport(
+                        lines.get(comparison.base), lines.get(comparison.candidate), classFilter);
+            } else {
+                List<IBundleCoverage> coverage = analyzer.analyze(executionData);
+                for (int i = 0; i < coverage.size(); i++) {
+                    phase.add(Metrics.CLASSES + " " + getTitle(comparisons, i), coverage.get(i).getClassCounter().getTotalCount());
+                }
+                reports = (reportGenerator, comparison, classFilter) -> reportGenerator.generateReport(
+                        coverage.get(comparison.base), coverage.get(comparison.candidate), classFilter);
+            }
+            StringPool stringPool = analyzer.getStringPool();
+            phase.add("pooled strings", stringPool.size());
+            phase.add("duplicate strings", stringPool.getDuplicates());
+            phase.add("string bytes saved", stringPool.getSavedBytes());
+            metrics.println("[Jacoco comparison tool] String pool: " + stringPool);
         }
-    }
-
-    private interface PathStoreStrategy {
 
-        boolean shouldBeStored(File file);
+        return reports;
     }
 
-    public static class LinesInfo extends HashMap<String, HashMap<String, HashMap<Integer, Integer>>> {
-        LinesInfo(Map<? extends String, ? extends HashMap<String, HashMap<Integer, Integer>>> m) {
-            super(m);
+    private static String getTitle(List<SuiteComparison> comparisons, int suite) {
+        for (SuiteComparison comparison : comparisons) {
+            if (comparison.base == suite) {
+                return comparison.baseTitle;
+            }
+            if (comparison.candidate == suite) {
+                return comparison.candidateTitle;
+            }
         }
+        return String.valueOf(suite);
+    }
+
+    /**
+     * Writes the report of a comparison from the coverage the analysis kept.
+     */
+    private interface Reports {
+
+        void generate(NewReportGenerator reportGenerator, SuiteComparison comparison, LongPredicate classFilter);
     }
 }
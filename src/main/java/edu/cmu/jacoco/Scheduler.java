@@ -0,0 +1,125 @@
+package edu.cmu.jacoco;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The executors all work of a run is scheduled on: a pool for parsing and evaluating classes and one for reading and
+ * writing files, optionally with a virtual thread per task. Tasks never wait for other tasks, work that depends on
+ * other work is chained with {@link CompletableFuture} and only the thread that started a phase waits for its result.
+ */
+class Scheduler implements Closeable {
+
+    /**
+     * Number of I/O threads that stands for a virtual thread per task.
+     */
+    static final int VIRTUAL = 0;
+
+    // the number of files open at a time when every task has a thread of its own
+    private static final int VIRTUAL_PARALLELISM = 256;
+
+    private static Scheduler defaultScheduler;
+
+    private final int threads;
+    private final ExecutorService compute;
+    private final ExecutorService io;
+    private final int ioParallelism;
+    private final boolean virtual;
+
+    /**
+     * @param threads   number of threads parsing and evaluating classes
+     * @param ioThreads number of threads reading and writing files, {@link #VIRTUAL} for a virtual thread per task if
+     *                  the JVM supports them and as many threads as the other pool otherwise
+     */
+    Scheduler(int threads, int ioThreads) {
+        this.threads = threads;
+        this.compute = Metrics.newForkJoinPool(threads);
+        ExecutorService virtualThreads = ioThreads == VIRTUAL ? newVirtualThreadExecutor() : null;
+        this.virtual = virtualThreads != null;
+        if (virtual) {
+            this.io = virtualThreads;
+            this.ioParallelism = VIRTUAL_PARALLELISM;
+        } else {
+            this.ioParallelism = ioThreads == VIRTUAL ? threads : ioThreads;
+            this.io = Executors.newFixedThreadPool(ioParallelism, Metrics.newThreadFactory());
+        }
+    }
+
+    /**
+     * @return a scheduler with a thread per processor in both pools, for callers that don't bring their own
+     */
+    static synchronized Scheduler getDefault() {
+        if (defaultScheduler == null) {
+            int processors = Runtime.getRuntime().availableProcessors();
+            defaultScheduler = new Scheduler(processors, processors);
+        }
+        return defaultScheduler;
+    }
+
+    /**
+     * Virtual threads are only available from Java 21 on, while the tool is built for Java 8.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return executor for work that keeps a processor busy
+     */
+    ExecutorService compute() {
+        return compute;
+    }
+
+    /**
+     * @return executor for work that mostly waits for files
+     */
+    ExecutorService io() {
+        return io;
+    }
+
+    /**
+     * @return number of I/O tasks that should run at a time
+     */
+    int getIoParallelism() {
+        return ioParallelism;
+    }
+
+    /**
+     * Waits for the result of a phase, must not be called from a task of this scheduler.
+     */
+    static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        compute.shutdown();
+        io.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return threads + " threads, " + (virtual ? "virtual" : String.valueOf(ioParallelism)) + " I/O threads";
+    }
+}
@@ -0,0 +1,168 @@
+package edu.cmu.jacoco;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Java source files of all source roots, keyed by their path relative to the root, e.g. "edu/cmu/jacoco/Runner.java".
+ * The roots are walked once, each by a task of the I/O executor, when a file exists in several roots the one of the
+ * first root wins. The modification times of the directories walked are kept to tell whether files were added or
+ * removed since.
+ */
+public class SourceIndex {
+
+    private final Map<String, File> files = new HashMap<>();
+    private final Map<File, Long> directories = new ConcurrentHashMap<>();
+    private final Scheduler scheduler;
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public SourceIndex(List<File> roots) {
+        this(roots, Scheduler.getDefault());
+    }
+
+    SourceIndex(List<File> roots, Scheduler scheduler) {
+        this.scheduler = scheduler;
+        List<CompletableFuture<Map<String, File>>> walks = roots.stream()
+                .map(root -> CompletableFuture.supplyAsync(() -> walk(root, directories), scheduler.io()))
+                .collect(Collectors.toList());
+        // in the order of the roots, so that the first one wins
+        for (CompletableFuture<Map<String, File>> walk : walks) {
+            try {
+                Scheduler.join(walk).forEach(files::putIfAbsent);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static Map<String, File> walk(File root, Map<File, Long> directories) {
+        Map<String, File> files = new HashMap<>();
+        Path rootPath = root.toPath();
+        try {
+            Files.walkFileTree(rootPath, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attrs) {
+                    directories.put(directory.toFile(), attrs.lastModifiedTime().toMillis());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && file.getFileName().toString().endsWith(".java")) {
+                        files.put(toKey(rootPath.relativize(file)), file.toFile());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return files;
+    }
+
+    private static String toKey(Path relative) {
+        StringBuilder key = new StringBuilder();
+        for (Path name : relative) {
+            if (key.length() > 0) {
+                key.append('/');
+            }
+            key.append(name.toString());
+        }
+        return key.toString();
+    }
+
+    /**
+     * @param packageName package name with either '.' or '/' as separator
+     * @param className   simple name of the class, the name of an inner class is mapped to its outer class
+     * @return the source file or null if no source root contains it
+     */
+    public File find(String packageName, String className) {
+        String packagePath = packageName.replace('.', '/');
+        String fileName = getSourceFileName(className);
+        File file = files.get(packagePath.isEmpty() ? fileName : packagePath + "/" + fileName);
+        lookups.incrementAndGet();
+        if (file == null) {
+            misses.incrementAndGet();
+        }
+        return file;
+    }
+
+    /**
+     * Removes the first "$Name" part of the class name, "Outer$Inner" is declared in "Outer.java".
+     */
+    static String getSourceFileName(String className) {
+        for (int i = 0; i + 1 < className.length(); i++) {
+            if (className.charAt(i) == '$' && isWordCharacter(className.charAt(i + 1))) {
+                int end = i + 1;
+                while (end < className.length() && isWordCharacter(className.charAt(end))) {
+                    end++;
+                }
+                return className.substring(0, i) + className.substring(end) + ".java";
+            }
+        }
+        return className + ".java";
+    }
+
+    private static boolean isWordCharacter(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_';
+    }
+
+    int size() {
+        return files.size();
+    }
+
+    /**
+     * @return whether no file was added to or removed from the directories walked, which is much cheaper to check than
+     * walking them again
+     */
+    boolean isUpToDate() {
+        List<Map.Entry<File, Long>> entries = new ArrayList<>(directories.entrySet());
+        int tasks = Math.max(1, Math.min(entries.size(), scheduler.getIoParallelism()));
+        List<CompletableFuture<Boolean>> checks = new ArrayList<>();
+        for (int task = 0; task < tasks; task++) {
+            int first = task;
+            checks.add(CompletableFuture.supplyAsync(() -> {
+                for (int i = first; i < entries.size(); i += tasks) {
+                    if (entries.get(i).getKey().lastModified() != entries.get(i).getValue()) {
+                        return false;
+                    }
+                }
+                return true;
+            }, scheduler.io()));
+        }
+        return checks.stream().allMatch(CompletableFuture::join);
+    }
+
+    long getLookups() {
+        return lookups.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return size() + " files, " + getLookups() + " lookups, " + getMisses() + " misses";
+    }
+}
@@ -0,0 +1,57 @@
+package edu.cmu.jacoco;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One report: the lines the base suite covers and the candidate suite doesn't cover fully. Suites are referred to by
+ * their index, the index after the last suite stands for the union of all suites.
+ */
+class SuiteComparison {
+
+    static final String UNION_TITLE = "all";
+
+    final int base;
+    final int candidate;
+    final String baseTitle;
+    final String candidateTitle;
+
+    SuiteComparison(int base, int candidate, String baseTitle, String candidateTitle) {
+        this.base = base;
+        this.candidate = candidate;
+        this.baseTitle = baseTitle;
+        this.candidateTitle = candidateTitle;
+    }
+
+    /**
+     * Every suite against every other suite, and the union of all suites against each suite.
+     */
+    static List<SuiteComparison> allPairs(List<String> titles) {
+        List<SuiteComparison> comparisons = new ArrayList<>();
+        int union = titles.size();
+        for (int base = 0; base < titles.size(); base++) {
+            for (int candidate = 0; candidate < titles.size(); candidate++) {
+                if (base != candidate) {
+                    comparisons.add(new SuiteComparison(base, candidate, titles.get(base), titles.get(candidate)));
+                }
+            }
+        }
+        for (int candidate = 0; candidate < titles.size(); candidate++) {
+            comparisons.add(new SuiteComparison(union, candidate, UNION_TITLE, titles.get(candidate)));
+        }
+        return comparisons;
+    }
+
+    String getDirectory() {
+        return sanitize(baseTitle) + "-vs-" + sanitize(candidateTitle);
+    }
+
+    static String sanitize(String title) {
+        return title.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    @Override
+    public String toString() {
+        return baseTitle + " vs " + candidateTitle;
+    }
+}
@@ -0,0 +1,36 @@
+package edu.cmu.jacoco;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps names to dense int symbols, so that every distinct name is stored only once.
+ */
+class SymbolTable {
+
+    static final int NONE = -1;
+
+    private final Map<String, Integer> symbols = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    int add(String name) {
+        Integer symbol = symbols.get(name);
+        if (symbol == null) {
+            symbol = names.size();
+            symbols.put(name, symbol);
+            names.add(name);
+        }
+        return symbol;
+    }
+
+    int get(String name) {
+        Integer symbol = symbols.get(name);
+        return symbol == null ? NONE : symbol;
+    }
+
+    String getName(int symbol) {
+        return names.get(symbol);
+    }
+}
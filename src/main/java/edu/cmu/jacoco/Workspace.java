@@ -0,0 +1,112 @@
+package edu.cmu.jacoco;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The class paths and the source files a run compares. The workspace of a previous run can be passed on to reuse the
+ * roots found below the root directory and the source index, as long as their directories didn't change.
+ */
+class Workspace {
+
+    final List<File> classes;
+    final SourceIndex sources;
+    private final LayoutDiscovery.Layout layout;
+    private final File root;
+    private final List<File> sourceRoots;
+    // modification times of the directories from the root down to the roots found
+    private final Map<File, Long> layoutDirectories;
+
+    private Workspace(
+            List<File> classes,
+            SourceIndex sources,
+            LayoutDiscovery.Layout layout,
+            File root,
+            List<File> sourceRoots,
+            Map<File, Long> layoutDirectories
+    ) {
+        this.classes = classes;
+        this.sources = sources;
+        this.layout = layout;
+        this.root = root;
+        this.sourceRoots = sourceRoots;
+        this.layoutDirectories = layoutDirectories;
+    }
+
+    /**
+     * Finds the class paths and source roots, below the root directory unless the arguments list them.
+     *
+     * @param previous the workspace of a previous run to reuse what is still valid of, or null
+     */
+    static Workspace discover(
+            ArgumentsExtractor.Arguments arguments,
+            Scheduler scheduler,
+            Workspace previous,
+            Metrics.Phase phase
+    ) throws IOException {
+        List<String> classPaths = arguments.classes;
+        List<String> sourcePaths = arguments.sources;
+        LayoutDiscovery.Layout layout = null;
+        File root = null;
+        Map<File, Long> layoutDirectories = null;
+        if (classPaths.isEmpty() || sourcePaths.isEmpty()) {
+            root = new File(arguments.root).getAbsoluteFile();
+            if (previous != null && previous.layout != null && previous.root.equals(root)
+                    && isUnchanged(previous.layoutDirectories)) {
+                layout = previous.layout;
+                layoutDirectories = previous.layoutDirectories;
+                phase.add("layouts reused", 1);
+            } else {
+                layout = new LayoutDiscovery(scheduler).discover(root,
+                        arguments.layoutCache == null ? null : new File(arguments.layoutCache));
+                layoutDirectories = getDirectories(root, layout);
+                phase.add("directories walked", layout.directories);
+            }
+            classPaths = classPaths.isEmpty() ? layout.classes : classPaths;
+            sourcePaths = sourcePaths.isEmpty() ? layout.sources : sourcePaths;
+        }
+        List<File> classes = classPaths.stream().map(File::new).filter(File::exists).collect(Collectors.toList());
+        List<File> sourceRoots = sourcePaths.stream()
+                .map(File::new).filter(File::exists).collect(Collectors.toList());
+
+        SourceIndex sources;
+        if (previous != null && previous.sourceRoots.equals(sourceRoots) && previous.sources.isUpToDate()) {
+            sources = previous.sources;
+            phase.add("source indexes reused", 1);
+        } else {
+            sources = new SourceIndex(sourceRoots, scheduler);
+        }
+        phase.add("class paths", classes.size());
+        phase.add("source roots", sourceRoots.size());
+        phase.add("source files", sources.size());
+
+        return new Workspace(classes, sources, layout, root, sourceRoots, layoutDirectories);
+    }
+
+    /**
+     * A module added or removed anywhere on the way to the roots found changes the modification time of one of these
+     * directories. The roots themselves are left out as every build changes them. Modules added elsewhere are only
+     * found by discovering the layout again.
+     */
+    private static Map<File, Long> getDirectories(File root, LayoutDiscovery.Layout layout) {
+        Map<File, Long> directories = new HashMap<>();
+        directories.put(root, root.lastModified());
+        Stream.concat(layout.classes.stream(), layout.sources.stream()).forEach(path -> {
+            for (File directory = new File(path).getParentFile(); directory != null && !directory.equals(root);
+                    directory = directory.getParentFile()) {
+                directories.computeIfAbsent(directory, File::lastModified);
+            }
+        });
+        return directories;
+    }
+
+    private static boolean isUnchanged(Map<File, Long> directories) {
+        return directories.entrySet().stream()
+                .allMatch(directory -> directory.getKey().lastModified() == directory.getValue());
+    }
+}
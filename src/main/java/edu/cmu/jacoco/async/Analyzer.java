@@ -5,6 +5,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.StringTokenizer;
+import java.util.function.LongPredicate;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -31,11 +32,17 @@ import org.objectweb.asm.ClassVisitor;
  */
 public class Analyzer {
 
-    private final ExecutionDataStore executionData;
+    private final ExecutionDataStore[] executionData;
 
-    private final ICoverageVisitor coverageVisitor;
+    private final ICoverageVisitor[] coverageVisitors;
 
-    private final StringPool stringPool;
+    private final ILinesVisitor[] linesVisitors;
+
+    private StringPool stringPool = new StringPool();
+
+    private LongPredicate classFilter = classid -> true;
+
+    private IStructureCache structureCache;
 
     /**
      * Creates a new analyzer reporting to the given output.
@@ -48,9 +55,87 @@ public class Analyzer {
      */
     public Analyzer(final ExecutionDataStore executionData,
                     final ICoverageVisitor coverageVisitor) {
+        this(new ExecutionDataStore[] { executionData },
+                new ICoverageVisitor[] { coverageVisitor });
+    }
+
+    /**
+     * Creates a new analyzer that evaluates every class against several sets
+     * of execution data at once. Each class is parsed only once, the coverage
+     * for the execution data at index <code>i</code> is reported to the output
+     * at the same index.
+     *
+     * @param executionData
+     *            execution data of every suite
+     * @param coverageVisitors
+     *            the output instances for every suite
+     */
+    public Analyzer(final ExecutionDataStore[] executionData,
+                    final ICoverageVisitor[] coverageVisitors) {
+        if (executionData.length != coverageVisitors.length) {
+            throw new IllegalArgumentException(
+                    "Every execution data store needs a coverage visitor");
+        }
         this.executionData = executionData;
-        this.coverageVisitor = coverageVisitor;
-        this.stringPool = new StringPool();
+        this.coverageVisitors = coverageVisitors;
+        this.linesVisitors = null;
+    }
+
+    /**
+     * Creates a new analyzer that only reports the line statuses of every
+     * class for several sets of execution data at once. No coverage nodes are
+     * created, the structure of a class can be released as soon as its lines
+     * are reported.
+     *
+     * @param executionData
+     *            execution data of every suite
+     * @param linesVisitors
+     *            the output instances for every suite
+     */
+    public Analyzer(final ExecutionDataStore[] executionData,
+                    final ILinesVisitor[] linesVisitors) {
+        if (executionData.length != linesVisitors.length) {
+            throw new IllegalArgumentException(
+                    "Every execution data store needs a lines visitor");
+        }
+        this.executionData = executionData;
+        this.coverageVisitors = null;
+        this.linesVisitors = linesVisitors;
+    }
+
+    /**
+     * Sets a filter on the class ids. Classes rejected by the filter are
+     * skipped before they are parsed and are not reported to the output.
+     *
+     * @param classFilter
+     *            filter on ids calculated with {@link CRC64} from the raw class
+     *            definitions
+     */
+    public void setClassFilter(final LongPredicate classFilter) {
+        this.classFilter = classFilter;
+    }
+
+    /**
+     * Sets the pool the names and descriptors of the analyzed classes are
+     * normalized with. By default every analyzer has a pool of its own.
+     *
+     * @param stringPool
+     *            pool to use
+     */
+    public void setStringPool(final StringPool stringPool) {
+        this.stringPool = stringPool;
+    }
+
+    /**
+     * Sets a cache for the structure of the analyzed classes. Classes found in
+     * the cache are evaluated without parsing them, all other classes are added
+     * to the cache after they have been parsed.
+     *
+     * @param structureCache
+     *            cache to use or <code>null</code>
+     */
+    public void setStructureCache(final IStructureCache structureCache) {
+        this.structureCache = structureCache;
     }
 
     /**
@@ -64,16 +149,9 @@ public class Analyzer {
      */
     private ClassVisitor createAnalyzingVisitor(final long classid,
                                                 final String className) {
-        final ExecutionData data = executionData.get(classid);
-        final boolean[] probes;
-        final boolean noMatch;
-        if (data == null) {
-            probes = null;
-            noMatch = executionData.contains(className);
-        } else {
-            probes = data.getProbes();
-            noMatch = false;
-        }
+        final ExecutionData data = executionData[0].get(classid);
+        final boolean[] probes = data == null ? null : data.getProbes();
+        final boolean noMatch = isNoMatch(executionData[0], data, className);
         final ClassCoverageImpl coverage = new ClassCoverageImpl(className,
                 classid, noMatch);
         final ClassAnalyzer analyzer = new ClassAnalyzer(coverage, probes,
@@ -81,12 +159,64 @@ public class Analyzer {
             @Override
             public void visitEnd() {
                 super.visitEnd();
-                coverageVisitor.visitCoverage(coverage);
+                coverageVisitors[0].visitCoverage(coverage);
             }
         };
         return new ClassProbesAdapter(analyzer, false);
     }
 
+    /**
+     * Creates an ASM class visitor that records the structure of the class and
+     * reports its coverage for every set of execution data.
+     *
+     * @param classid
+     *            id of the class calculated with {@link CRC64}
+     * @param className
+     *            VM name of the class
+     * @return ASM visitor to write class definition to
+     */
+    private ClassVisitor createStructureVisitor(final long classid,
+                                                final String className) {
+        final ClassStructureAnalyzer analyzer = new ClassStructureAnalyzer(
+                classid, className, stringPool) {
+            @Override
+            public void visitEnd() {
+                super.visitEnd();
+                final ClassStructure structure = getStructure();
+                if (structureCache != null) {
+                    structureCache.put(structure);
+                }
+                visitStructure(structure);
+            }
+        };
+        return new ClassProbesAdapter(analyzer, false);
+    }
+
+    private void visitStructure(final ClassStructure structure) {
+        for (int i = 0; i < executionData.length; i++) {
+            final ExecutionData data = executionData[i].get(structure.getId());
+            final boolean[] probes = data == null ? null : data.getProbes();
+            if (linesVisitors != null) {
+                final int[] statuses = structure.getLineStatuses(probes);
+                if (statuses != null) {
+                    linesVisitors[i].visitLines(structure.getId(),
+                            structure.getName(), structure.getFirstLine(),
+                            statuses);
+                }
+                continue;
+            }
+            final boolean noMatch = isNoMatch(executionData[i], data,
+                    structure.getName());
+            coverageVisitors[i].visitCoverage(
+                    structure.getCoverage(probes, noMatch));
+        }
+    }
+
+    private static boolean isNoMatch(final ExecutionDataStore store,
+                                     final ExecutionData data, final String className) {
+        return data == null && store.contains(className);
+    }
+
     /**
      * Analyzes the class given as a ASM reader.
      *
@@ -94,8 +224,14 @@ public class Analyzer {
      *            reader with class definitions
      */
     public void analyzeClass(final ClassReader reader) {
-        final ClassVisitor visitor = createAnalyzingVisitor(
-                CRC64.checksum(reader.b), reader.getClassName());
+        analyzeClass(CRC64.checksum(reader.b), reader);
+    }
+
+    private void analyzeClass(final long classid, final ClassReader reader) {
+        final ClassVisitor visitor = executionData.length == 1
+                && structureCache == null && linesVisitors == null
+                ? createAnalyzingVisitor(classid, reader.getClassName())
+                : createStructureVisitor(classid, reader.getClassName());
         reader.accept(visitor, 0);
     }
 
@@ -112,8 +248,18 @@ public class Analyzer {
     public void analyzeClass(final byte[] buffer, final String location)
             throws IOException {
         try {
-            analyzeClass(
-                    new ClassReader(Java9Support.downgradeIfRequired(buffer)));
+            final byte[] definition = Java9Support.downgradeIfRequired(buffer);
+            final long classid = CRC64.checksum(definition);
+            if (!classFilter.test(classid)) {
+                return;
+            }
+            final ClassStructure structure = structureCache == null ? null
+                    : structureCache.get(classid, stringPool);
+            if (structure != null) {
+                visitStructure(structure);
+            } else {
+                analyzeClass(classid, new ClassReader(definition));
+            }
         } catch (final RuntimeException cause) {
             throw analyzerError(location, cause);
         }
@@ -0,0 +1,353 @@
+package edu.cmu.jacoco.async;
+
+import java.io.IOException;
+
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.analysis.ISourceNode;
+import org.jacoco.core.internal.analysis.ClassCoverageImpl;
+import org.jacoco.core.internal.analysis.CounterImpl;
+import org.jacoco.core.internal.analysis.MethodCoverageImpl;
+import org.jacoco.core.internal.data.CompactDataInput;
+import org.jacoco.core.internal.data.CompactDataOutput;
+
+/**
+ * Probe independent structure of a class as seen by
+ * {@link org.jacoco.core.internal.analysis.MethodAnalyzer}: the instructions of
+ * every method with their lines, branch counts and predecessors, and the
+ * instructions each probe is attached to. The structure is recorded once with
+ * a {@link ClassStructureAnalyzer} and can then be evaluated against any number
+ * of probe arrays without parsing the class again.
+ */
+public class ClassStructure {
+
+    private final long id;
+    private final String name;
+    private final String signature;
+    private final String superName;
+    private final String[] interfaces;
+    private final String sourceFileName;
+    private final int probeCount;
+
+    private final Method[] methods;
+
+    // one slot per instruction of all methods
+    private final int[] lines;
+    private final int[] branches;
+    private final int[] predecessors;
+
+    // one slot per probe attached to an instruction
+    private final int[] hitInstructions;
+    private final int[] hitProbes;
+
+    private final int firstLine;
+    private final int lastLine;
+
+    ClassStructure(final long id, final String name, final String signature,
+                   final String superName, final String[] interfaces,
+                   final String sourceFileName, final int probeCount,
+                   final Method[] methods, final int[] lines,
+                   final int[] branches, final int[] predecessors,
+                   final int[] hitInstructions, final int[] hitProbes) {
+        this.id = id;
+        this.name = name;
+        this.signature = signature;
+        this.superName = superName;
+        this.interfaces = interfaces;
+        this.sourceFileName = sourceFileName;
+        this.probeCount = probeCount;
+        this.methods = methods;
+        this.lines = lines;
+        this.branches = branches;
+        this.predecessors = predecessors;
+        this.hitInstructions = hitInstructions;
+        this.hitProbes = hitProbes;
+        int first = ISourceNode.UNKNOWN_LINE;
+        int last = ISourceNode.UNKNOWN_LINE;
+        for (final Method method : methods) {
+            if (method.firstLine != ISourceNode.UNKNOWN_LINE) {
+                if (first == ISourceNode.UNKNOWN_LINE || method.firstLine < first) {
+                    first = method.firstLine;
+                }
+                last = Math.max(last, method.lastLine);
+            }
+        }
+        this.firstLine = first;
+        this.lastLine = last;
+    }
+
+    /**
+     * @return id of the class calculated with
+     *         {@link org.jacoco.core.internal.data.CRC64}
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return VM name of the class
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return number of probes of the class
+     */
+    public int getProbeCount() {
+        return probeCount;
+    }
+
+    /**
+     * @return first line of the class or {@link ISourceNode#UNKNOWN_LINE} if
+     *         the class has no debug information
+     */
+    public int getFirstLine() {
+        return firstLine;
+    }
+
+    /**
+     * Estimates the heap space the structure takes. Strings are shared
+     * through a {@link StringPool} and not counted.
+     *
+     * @return approximate size in bytes
+     */
+    public long estimateSize() {
+        final int slots = lines.length * 3 + hitInstructions.length * 2;
+        return 64 + 48L * methods.length + 8L * interfaces.length + 4L * slots
+                + 16 * 5;
+    }
+
+    /**
+     * Calculates the status of every line of the class for the given
+     * execution data, the same status the lines of the node created by
+     * {@link #getCoverage(boolean[], boolean)} have, without creating any
+     * coverage nodes.
+     *
+     * @param probes
+     *            execution data for this class or <code>null</code>
+     * @return {@link ICounter} status of every line from
+     *         {@link #getFirstLine()} up to the last line of the class, or
+     *         <code>null</code> if the class has no debug information
+     */
+    public int[] getLineStatuses(final boolean[] probes) {
+        if (firstLine == ISourceNode.UNKNOWN_LINE) {
+            return null;
+        }
+        final int[] statuses = new int[lastLine - firstLine + 1];
+        final int[] coveredBranches = propagate(probes);
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i] == ISourceNode.UNKNOWN_LINE) {
+                continue;
+            }
+            // a line is covered if any of its counters has covered items
+            // and missed if any of them has missed items
+            final int total = branches[i];
+            final int covered = coveredBranches[i];
+            int status = covered == 0 ? ICounter.NOT_COVERED
+                    : ICounter.FULLY_COVERED;
+            if (total > 1 && covered > 0 && covered < total) {
+                status = ICounter.PARTLY_COVERED;
+            }
+            statuses[lines[i] - firstLine] |= status;
+        }
+        return statuses;
+    }
+
+    /**
+     * Creates the coverage node of the class for the given execution data.
+     * The result is the same {@link ClassAnalyzer} reports for the class.
+     *
+     * @param probes
+     *            execution data for this class or <code>null</code>
+     * @param noMatch
+     *            <code>true</code> if the execution data of the class does not
+     *            match
+     * @return coverage node of the class
+     */
+    public ClassCoverageImpl getCoverage(final boolean[] probes,
+                                         final boolean noMatch) {
+        final ClassCoverageImpl coverage = new ClassCoverageImpl(name, id,
+                noMatch);
+        coverage.setSignature(signature);
+        coverage.setSuperName(superName);
+        coverage.setInterfaces(interfaces);
+        coverage.setSourceFileName(sourceFileName);
+
+        final int[] coveredBranches = propagate(probes);
+        for (final Method method : methods) {
+            final MethodCoverageImpl methodCoverage = new MethodCoverageImpl(
+                    method.name, method.desc, method.signature);
+            methodCoverage.ensureCapacity(method.firstLine, method.lastLine);
+            for (int i = method.firstInstruction; i < method.lastInstruction; i++) {
+                final int total = branches[i];
+                final int covered = coveredBranches[i];
+                final ICounter instrCounter = covered == 0 ? CounterImpl.COUNTER_1_0
+                        : CounterImpl.COUNTER_0_1;
+                final ICounter branchCounter = total > 1 ? CounterImpl.getInstance(
+                        total - covered, covered) : CounterImpl.COUNTER_0_0;
+                methodCoverage.increment(instrCounter, branchCounter, lines[i]);
+            }
+            methodCoverage.incrementMethodCounter();
+            coverage.addMethod(methodCoverage);
+        }
+        return coverage;
+    }
+
+    /**
+     * Counts the covered branches of every instruction the same way
+     * {@link org.jacoco.core.internal.flow.Instruction#setCovered()} does.
+     */
+    private int[] propagate(final boolean[] probes) {
+        final int[] coveredBranches = new int[lines.length];
+        if (probes == null) {
+            return coveredBranches;
+        }
+        for (int hit = 0; hit < hitProbes.length; hit++) {
+            if (probes[hitProbes[hit]]) {
+                int i = hitInstructions[hit];
+                while (i != -1 && coveredBranches[i]++ == 0) {
+                    i = predecessors[i];
+                }
+            }
+        }
+        return coveredBranches;
+    }
+
+    /**
+     * Writes the structure in a compact binary form.
+     *
+     * @param out
+     *            output to write to
+     * @throws IOException
+     *             if the output can't be written
+     */
+    void write(final CompactDataOutput out) throws IOException {
+        out.writeLong(id);
+        out.writeUTF(name);
+        writeString(out, signature);
+        writeString(out, superName);
+        writeString(out, sourceFileName);
+        out.writeBoolean(interfaces != null);
+        if (interfaces != null) {
+            out.writeVarInt(interfaces.length);
+            for (final String i : interfaces) {
+                out.writeUTF(i);
+            }
+        }
+        out.writeVarInt(probeCount);
+        out.writeVarInt(methods.length);
+        for (final Method method : methods) {
+            out.writeUTF(method.name);
+            out.writeUTF(method.desc);
+            writeString(out, method.signature);
+            out.writeVarInt(method.firstLine);
+            out.writeVarInt(method.lastLine);
+            out.writeVarInt(method.firstInstruction);
+            out.writeVarInt(method.lastInstruction);
+        }
+        out.writeVarInt(lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            out.writeVarInt(lines[i]);
+            out.writeVarInt(branches[i]);
+            // shifted so that "no predecessor" is a single byte
+            out.writeVarInt(predecessors[i] + 1);
+        }
+        out.writeVarInt(hitProbes.length);
+        for (int i = 0; i < hitProbes.length; i++) {
+            out.writeVarInt(hitInstructions[i]);
+            out.writeVarInt(hitProbes[i]);
+        }
+    }
+
+    /**
+     * Reads a structure written with {@link #write(CompactDataOutput)}.
+     *
+     * @param in
+     *            input to read from
+     * @param pool
+     *            pool to normalize the strings of the structure with
+     * @return structure read
+     * @throws IOException
+     *             if the input can't be read
+     */
+    static ClassStructure read(final CompactDataInput in,
+                               final StringPool pool) throws IOException {
+        final long id = in.readLong();
+        final String name = pool.get(in.readUTF());
+        final String signature = pool.get(readString(in));
+        final String superName = pool.get(readString(in));
+        final String sourceFileName = pool.get(readString(in));
+        String[] interfaces = null;
+        if (in.readBoolean()) {
+            interfaces = new String[in.readVarInt()];
+            for (int i = 0; i < interfaces.length; i++) {
+                interfaces[i] = pool.get(in.readUTF());
+            }
+        }
+        final int probeCount = in.readVarInt();
+        final Method[] methods = new Method[in.readVarInt()];
+        for (int i = 0; i < methods.length; i++) {
+            methods[i] = new Method(pool.get(in.readUTF()),
+                    pool.get(in.readUTF()), pool.get(readString(in)),
+                    in.readVarInt(), in.readVarInt(), in.readVarInt(),
+                    in.readVarInt());
+        }
+        final int instructions = in.readVarInt();
+        final int[] lines = new int[instructions];
+        final int[] branches = new int[instructions];
+        final int[] predecessors = new int[instructions];
+        for (int i = 0; i < instructions; i++) {
+            lines[i] = in.readVarInt();
+            branches[i] = in.readVarInt();
+            predecessors[i] = in.readVarInt() - 1;
+        }
+        final int hits = in.readVarInt();
+        final int[] hitInstructions = new int[hits];
+        final int[] hitProbes = new int[hits];
+        for (int i = 0; i < hits; i++) {
+            hitInstructions[i] = in.readVarInt();
+            hitProbes[i] = in.readVarInt();
+        }
+        return new ClassStructure(id, name, signature, superName, interfaces,
+                sourceFileName, probeCount, methods, lines, branches,
+                predecessors, hitInstructions, hitProbes);
+    }
+
+    private static void writeString(final CompactDataOutput out,
+                                    final String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readString(final CompactDataInput in)
+            throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Method of a class with the range of its instructions.
+     */
+    static class Method {
+        final String name;
+        final String desc;
+        final String signature;
+        final int firstLine;
+        final int lastLine;
+        final int firstInstruction;
+        final int lastInstruction;
+
+        Method(final String name, final String desc, final String signature,
+               final int firstLine, final int lastLine,
+               final int firstInstruction, final int lastInstruction) {
+            this.name = name;
+            this.desc = desc;
+            this.signature = signature;
+            this.firstLine = firstLine;
+            this.lastLine = lastLine;
+            this.firstInstruction = firstInstruction;
+            this.lastInstruction = lastInstruction;
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package edu.cmu.jacoco.async;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jacoco.core.analysis.ISourceNode;
+import org.jacoco.core.internal.flow.ClassProbesVisitor;
+import org.jacoco.core.internal.flow.IFrame;
+import org.jacoco.core.internal.flow.Instruction;
+import org.jacoco.core.internal.flow.LabelInfo;
+import org.jacoco.core.internal.flow.MethodProbesVisitor;
+import org.jacoco.core.internal.instr.InstrSupport;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Records the {@link ClassStructure} of a class. The instructions, jumps and
+ * probes are tracked exactly like
+ * {@link org.jacoco.core.internal.analysis.MethodAnalyzer} does, but instead of
+ * propagating the execution data the resulting graph is kept for later
+ * evaluation.
+ */
+public class ClassStructureAnalyzer extends ClassProbesVisitor {
+
+    private final long id;
+    private final String name;
+    private final StringPool stringPool;
+
+    private String signature;
+    private String superName;
+    private String[] interfaces;
+    private String sourceFileName;
+    private int probeCount;
+
+    private final List<ClassStructure.Method> methods = new ArrayList<>();
+
+    private int[] lines = new int[64];
+    private int[] branches = new int[64];
+    private int[] predecessors = new int[64];
+    private int instructions = 0;
+
+    private int[] hitInstructions = new int[16];
+    private int[] hitProbes = new int[16];
+    private int hits = 0;
+
+    /**
+     * Creates a new analyzer that records the structure of a class.
+     *
+     * @param id
+     *            id of the class calculated with
+     *            {@link org.jacoco.core.internal.data.CRC64}
+     * @param name
+     *            VM name of the class
+     * @param stringPool
+     *            shared pool to minimize the number of {@link String} instances
+     */
+    public ClassStructureAnalyzer(final long id, final String name,
+                                  final StringPool stringPool) {
+        this.id = id;
+        this.name = name;
+        this.stringPool = stringPool;
+    }
+
+    /**
+     * @return the recorded structure, only valid after the class has been
+     *         visited completely
+     */
+    public ClassStructure getStructure() {
+        return new ClassStructure(id, name, signature, superName, interfaces,
+                sourceFileName, probeCount,
+                methods.toArray(new ClassStructure.Method[methods.size()]),
+                Arrays.copyOf(lines, instructions),
+                Arrays.copyOf(branches, instructions),
+                Arrays.copyOf(predecessors, instructions),
+                Arrays.copyOf(hitInstructions, hits),
+                Arrays.copyOf(hitProbes, hits));
+    }
+
+    @Override
+    public void visit(final int version, final int access, final String name,
+                      final String signature, final String superName,
+                      final String[] interfaces) {
+        this.signature = stringPool.get(signature);
+        this.superName = stringPool.get(superName);
+        this.interfaces = stringPool.get(interfaces);
+    }
+
+    @Override
+    public void visitSource(final String source, final String debug) {
+        this.sourceFileName = stringPool.get(source);
+    }
+
+    @Override
+    public MethodProbesVisitor visitMethod(final int access, final String name,
+                                           final String desc, final String signature, final String[] exceptions) {
+
+        InstrSupport.assertNotInstrumented(name, this.name);
+
+        if (isMethodFiltered(access, name)) {
+            return null;
+        }
+
+        return new MethodStructureAnalyzer(stringPool.get(name),
+                stringPool.get(desc), stringPool.get(signature));
+    }
+
+    // Same filter as in ClassAnalyzer
+    private boolean isMethodFiltered(final int access, final String name) {
+        return (access & Opcodes.ACC_SYNTHETIC) != 0
+                && !name.startsWith("lambda$");
+    }
+
+    @Override
+    public FieldVisitor visitField(final int access, final String name,
+                                   final String desc, final String signature, final Object value) {
+        InstrSupport.assertNotInstrumented(name, this.name);
+        return super.visitField(access, name, desc, signature, value);
+    }
+
+    @Override
+    public void visitTotalProbeCount(final int count) {
+        this.probeCount = count;
+    }
+
+    private int addInstruction(final int line) {
+        if (instructions == lines.length) {
+            final int capacity = instructions * 2;
+            lines = Arrays.copyOf(lines, capacity);
+            branches = Arrays.copyOf(branches, capacity);
+            predecessors = Arrays.copyOf(predecessors, capacity);
+        }
+        lines[instructions] = line;
+        branches[instructions] = 0;
+        predecessors[instructions] = -1;
+        return instructions++;
+    }
+
+    private void setPredecessor(final int instruction, final int predecessor) {
+        predecessors[instruction] = predecessor;
+        branches[predecessor]++;
+    }
+
+    private void addHit(final int instruction, final int probeId) {
+        if (hits == hitProbes.length) {
+            final int capacity = hits * 2;
+            hitInstructions = Arrays.copyOf(hitInstructions, capacity);
+            hitProbes = Arrays.copyOf(hitProbes, capacity);
+        }
+        hitInstructions[hits] = instruction;
+        hitProbes[hits] = probeId;
+        hits++;
+    }
+
+    /**
+     * Marker stored in the {@link LabelInfo} of a label to find the index of
+     * the instruction the label belongs to.
+     */
+    private static class IndexedInstruction extends Instruction {
+        final int index;
+
+        IndexedInstruction(final int line, final int index) {
+            super(line);
+            this.index = index;
+        }
+    }
+
+    private class MethodStructureAnalyzer extends MethodProbesVisitor {
+
+        private final String name;
+        private final String desc;
+        private final String signature;
+
+        private final int firstInstruction = instructions;
+
+        private int currentLine = ISourceNode.UNKNOWN_LINE;
+
+        private int firstLine = ISourceNode.UNKNOWN_LINE;
+
+        private int lastLine = ISourceNode.UNKNOWN_LINE;
+
+        // Due to ASM issue #315745 there can be more than one label per instruction
+        private final List<Label> currentLabel = new ArrayList<>(2);
+
+        private final List<Label> jumpTargets = new ArrayList<>();
+
+        private int[] jumpSources = new int[8];
+
+        private int lastInsn = -1;
+
+        MethodStructureAnalyzer(final String name, final String desc,
+                                final String signature) {
+            this.name = name;
+            this.desc = desc;
+            this.signature = signature;
+        }
+
+        @Override
+        public void visitLabel(final Label label) {
+            currentLabel.add(label);
+            if (!LabelInfo.isSuccessor(label)) {
+                lastInsn = -1;
+            }
+        }
+
+        @Override
+        public void visitLineNumber(final int line, final Label start) {
+            currentLine = line;
+            if (firstLine > line || lastLine == ISourceNode.UNKNOWN_LINE) {
+                firstLine = line;
+            }
+            if (lastLine < line) {
+                lastLine = line;
+            }
+        }
+
+        private void visitInsn() {
+            final int insn = addInstruction(currentLine);
+            if (lastInsn != -1) {
+                setPredecessor(insn, lastInsn);
+            }
+            final int labelCount = currentLabel.size();
+            if (labelCount > 0) {
+                final Instruction marker = new IndexedInstruction(currentLine, insn);
+                for (int i = labelCount; --i >= 0;) {
+                    LabelInfo.setInstruction(currentLabel.get(i), marker);
+                }
+                currentLabel.clear();
+            }
+            lastInsn = insn;
+        }
+
+        private void addJump(final int source, final Label target) {
+            final int count = jumpTargets.size();
+            if (count == jumpSources.length) {
+                jumpSources = Arrays.copyOf(jumpSources, count * 2);
+            }
+            jumpSources[count] = source;
+            jumpTargets.add(target);
+        }
+
+        @Override
+        public void visitInsn(final int opcode) {
+            visitInsn();
+        }
+
+        @Override
+        public void visitIntInsn(final int opcode, final int operand) {
+            visitInsn();
+        }
+
+        @Override
+        public void visitVarInsn(final int opcode, final int var) {
+            visitInsn();
+        }
+
+        @Override
+        public void visitTypeInsn(final int opcode, final String type) {
+            visitInsn();
+        }
+
+        @Override
+        public void visitFieldInsn(final int opcode, final String owner,
+                                   final String name, final String desc) {
+            visitInsn();
+        }
+
+        @Override
+        public void visitMethodInsn(final int opcode, final String owner,
+                                    final String name, final String desc, final boolean itf) {
+            visitInsn();
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(final String name, final String desc,
+                                           final Handle bsm, final Object... bsmArgs) {
+            visitInsn();
+        }
+
+        @Override
+        public void visitJumpInsn(final int opcode, final Label label) {
+            visitInsn();
+            addJump(lastInsn, label);
+        }
+
+        @Override
+        public void visitLdcInsn(final Object cst) {
+            visitInsn();
+        }
+
+        @Override
+        public void visitIincInsn(final int var, final int increment) {
+            visitInsn();
+        }
+
+        @Override
+        public void visitTableSwitchInsn(final int min, final int max,
+                                         final Label dflt, final Label... labels) {
+            visitSwitchInsn(dflt, labels);
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(final Label dflt, final int[] keys,
+                                          final Label[] labels) {
+            visitSwitchInsn(dflt, labels);
+        }
+
+        private void visitSwitchInsn(final Label dflt, final Label[] labels) {
+            visitInsn();
+            LabelInfo.resetDone(labels);
+            addJump(lastInsn, dflt);
+            LabelInfo.setDone(dflt);
+            for (final Label l : labels) {
+                if (!LabelInfo.isDone(l)) {
+                    addJump(lastInsn, l);
+                    LabelInfo.setDone(l);
+                }
+            }
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(final String desc, final int dims) {
+            visitInsn();
+        }
+
+        @Override
+        public void visitProbe(final int probeId) {
+            addProbe(probeId);
+            lastInsn = -1;
+        }
+
+        @Override
+        public void visitJumpInsnWithProbe(final int opcode, final Label label,
+                                           final int probeId, final IFrame frame) {
+            visitInsn();
+            addProbe(probeId);
+        }
+
+        @Override
+        public void visitInsnWithProbe(final int opcode, final int probeId) {
+            visitInsn();
+            addProbe(probeId);
+        }
+
+        @Override
+        public void visitTableSwitchInsnWithProbes(final int min, final int max,
+                                                   final Label dflt, final Label[] labels, final IFrame frame) {
+            visitSwitchInsnWithProbes(dflt, labels);
+        }
+
+        @Override
+        public void visitLookupSwitchInsnWithProbes(final Label dflt,
+                                                    final int[] keys, final Label[] labels, final IFrame frame) {
+            visitSwitchInsnWithProbes(dflt, labels);
+        }
+
+        private void visitSwitchInsnWithProbes(final Label dflt,
+                                               final Label[] labels) {
+            visitInsn();
+            LabelInfo.resetDone(dflt);
+            LabelInfo.resetDone(labels);
+            visitSwitchTarget(dflt);
+            for (final Label l : labels) {
+                visitSwitchTarget(l);
+            }
+        }
+
+        private void visitSwitchTarget(final Label label) {
+            final int id = LabelInfo.getProbeId(label);
+            if (!LabelInfo.isDone(label)) {
+                if (id == LabelInfo.NO_PROBE) {
+                    addJump(lastInsn, label);
+                } else {
+                    addProbe(id);
+                }
+                LabelInfo.setDone(label);
+            }
+        }
+
+        @Override
+        public void visitEnd() {
+            // Wire jumps:
+            for (int i = 0; i < jumpTargets.size(); i++) {
+                final IndexedInstruction target = (IndexedInstruction) LabelInfo
+                        .getInstruction(jumpTargets.get(i));
+                setPredecessor(target.index, jumpSources[i]);
+            }
+            // Only consider methods that actually contain code
+            if (instructions > firstInstruction) {
+                methods.add(new ClassStructure.Method(name, desc, signature,
+                        firstLine, lastLine, firstInstruction, instructions));
+            }
+        }
+
+        private void addProbe(final int probeId) {
+            branches[lastInsn]++;
+            addHit(lastInsn, probeId);
+        }
+    }
+}
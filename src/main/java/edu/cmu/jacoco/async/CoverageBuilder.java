@@ -24,20 +24,21 @@ import org.jacoco.core.internal.analysis.SourceFileCoverageImpl;
  *     +-- {@link IClassCoverage}*
  *     +-- {@link ISourceFileCoverage}*
  * </pre>
+ *
+ * Classes may be visited from many threads at once. Their only shared state is
+ * the concurrent map of classes, the source file nodes are aggregated from the
+ * classes when they are requested.
  */
 public class CoverageBuilder implements ICoverageVisitor {
 
     private final Map<String, IClassCoverage> classes;
 
-    private final Map<String, ISourceFileCoverage> sourcefiles;
-
     /**
      * Create a new builder.
      *
      */
     public CoverageBuilder() {
         this.classes = new ConcurrentHashMap<String, IClassCoverage>();
-        this.sourcefiles = new ConcurrentHashMap<String, ISourceFileCoverage>();
     }
 
     /**
@@ -55,7 +56,7 @@ public class CoverageBuilder implements ICoverageVisitor {
      * @return all source file nodes
      */
     public Collection<ISourceFileCoverage> getSourceFiles() {
-        return Collections.unmodifiableCollection(sourcefiles.values());
+        return Collections.unmodifiableCollection(aggregateSourceFiles());
     }
 
     /**
@@ -67,7 +68,7 @@ public class CoverageBuilder implements ICoverageVisitor {
      */
     public IBundleCoverage getBundle(final String name) {
         return new BundleCoverageImpl(name, classes.values(),
-                sourcefiles.values());
+                aggregateSourceFiles());
     }
 
     /**
@@ -93,33 +94,35 @@ public class CoverageBuilder implements ICoverageVisitor {
         if (coverage.getInstructionCounter().getTotalCount() > 0) {
             final String name = coverage.getName();
             final IClassCoverage dup = classes.put(name, coverage);
-            if (dup != null) {
-                if (dup.getId() != coverage.getId()) {
-                    throw new IllegalStateException(
-                            "Can't add different class with same name: "
-                                    + name);
-                }
-            } else {
-                final String source = coverage.getSourceFileName();
-                if (source != null) {
-                    final SourceFileCoverageImpl sourceFile = getSourceFile(
-                            source, coverage.getPackageName());
-                    sourceFile.increment(coverage);
-                }
+            if (dup != null && dup.getId() != coverage.getId()) {
+                throw new IllegalStateException(
+                        "Can't add different class with same name: " + name);
             }
         }
     }
 
-    private SourceFileCoverageImpl getSourceFile(final String filename,
-                                                 final String packagename) {
-        final String key = packagename + '/' + filename;
-        SourceFileCoverageImpl sourcefile = (SourceFileCoverageImpl) sourcefiles
-                .get(key);
-        if (sourcefile == null) {
-            sourcefile = new SourceFileCoverageImpl(filename, packagename);
-            sourcefiles.put(key, sourcefile);
+    /**
+     * Sums up the classes of every source file. The counters are additive, so
+     * the result doesn't depend on the order of the classes.
+     *
+     * @return source file nodes of all classes currently contained
+     */
+    private Collection<ISourceFileCoverage> aggregateSourceFiles() {
+        final Map<String, SourceFileCoverageImpl> sourcefiles = new HashMap<String, SourceFileCoverageImpl>();
+        for (final IClassCoverage coverage : classes.values()) {
+            final String source = coverage.getSourceFileName();
+            if (source != null) {
+                final String packagename = coverage.getPackageName();
+                final String key = packagename + '/' + source;
+                SourceFileCoverageImpl sourcefile = sourcefiles.get(key);
+                if (sourcefile == null) {
+                    sourcefile = new SourceFileCoverageImpl(source, packagename);
+                    sourcefiles.put(key, sourcefile);
+                }
+                sourcefile.increment(coverage);
+            }
         }
-        return sourcefile;
+        return new ArrayList<ISourceFileCoverage>(sourcefiles.values());
     }
 
 }
@@ -0,0 +1,26 @@
+package edu.cmu.jacoco.async;
+
+/**
+ * Interface for receiving only the line statuses of analyzed classes, without
+ * their coverage nodes.
+ */
+public interface ILinesVisitor {
+
+    /**
+     * Entry point to visit the line statuses of a single class. Classes
+     * without debug information are not visited.
+     *
+     * @param id
+     *            id of the class calculated with
+     *            {@link org.jacoco.core.internal.data.CRC64}
+     * @param name
+     *            VM name of the class
+     * @param firstLine
+     *            first line of the class
+     * @param statuses
+     *            {@link org.jacoco.core.analysis.ICounter} status of every
+     *            line, starting at the first line
+     */
+    void visitLines(long id, String name, int firstLine, int[] statuses);
+
+}
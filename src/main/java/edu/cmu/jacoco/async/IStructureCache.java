@@ -0,0 +1,29 @@
+package edu.cmu.jacoco.async;
+
+/**
+ * Cache for the {@link ClassStructure} of analyzed classes, keyed by the class
+ * id. Implementations must be thread safe.
+ */
+public interface IStructureCache {
+
+    /**
+     * Returns the cached structure of a class.
+     *
+     * @param classid
+     *            id of the class
+     * @param stringPool
+     *            pool to normalize the strings of a structure read from
+     *            storage with
+     * @return cached structure or <code>null</code> if there is none
+     */
+    ClassStructure get(long classid, StringPool stringPool);
+
+    /**
+     * Adds the structure of a class to the cache.
+     *
+     * @param structure
+     *            structure to add
+     */
+    void put(ClassStructure structure);
+
+}
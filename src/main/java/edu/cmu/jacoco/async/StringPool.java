@@ -1,7 +1,7 @@
 package edu.cmu.jacoco.async;
 
-import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Utility to normalize {@link String} instances in a way that if
@@ -10,12 +10,25 @@ import java.util.concurrent.ConcurrentHashMap;
  * {@link String#intern()} does, this implementation avoids VM specific side
  * effects and is supposed to be faster, as neither native code is called nor
  * synchronization is required for concurrent lookup.
+ * <p>
+ * A pool holds on to every string it has seen, so it should only live as long
+ * as the analysis its strings come from.
  */
 public final class StringPool {
 
     private static final String[] EMPTY_ARRAY = new String[0];
 
-    private final Map<String, String> pool = new ConcurrentHashMap<>(1024);
+    /**
+     * Estimated size of a {@link String} besides its characters: the object,
+     * the header of its array and the padding, assuming compact strings.
+     */
+    private static final int STRING_OVERHEAD = 24 + 16 + 4;
+
+    private final ConcurrentHashMap<String, String> pool = new ConcurrentHashMap<>(1024);
+
+    private final LongAdder duplicates = new LongAdder();
+
+    private final LongAdder savedBytes = new LongAdder();
 
     /**
      * Returns a normalized instance that is equal to the given {@link String} .
@@ -28,10 +41,16 @@ public final class StringPool {
         if (s == null) {
             return null;
         }
-        final String norm = pool.get(s);
+        String norm = pool.get(s);
         if (norm == null) {
-            pool.put(s, s);
-            return s;
+            norm = pool.putIfAbsent(s, s);
+            if (norm == null) {
+                return s;
+            }
+        }
+        if (norm != s) {
+            duplicates.increment();
+            savedBytes.add(STRING_OVERHEAD + s.length());
         }
         return norm;
     }
@@ -45,7 +64,7 @@ public final class StringPool {
      *            String array or <code>null</code>
      * @return normalized instance or <code>null</code>
      */
-    public synchronized String[] get(final String[] arr) {
+    public String[] get(final String[] arr) {
         if (arr == null) {
             return null;
         }
@@ -58,5 +77,31 @@ public final class StringPool {
         return arr;
     }
 
-}
+    /**
+     * @return number of distinct strings in the pool
+     */
+    public int size() {
+        return pool.size();
+    }
 
+    /**
+     * @return number of strings replaced by an equal instance of the pool
+     */
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    /**
+     * @return estimated number of bytes the replaced strings occupied
+     */
+    public long getSavedBytes() {
+        return savedBytes.sum();
+    }
+
+    @Override
+    public String toString() {
+        return size() + " strings, " + getDuplicates() + " duplicates, "
+                + getSavedBytes() / 1024 + " KB saved";
+    }
+
+}
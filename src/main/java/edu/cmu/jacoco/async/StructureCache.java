@@ -0,0 +1,232 @@
+package edu.cmu.jacoco.async;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jacoco.core.internal.data.CompactDataInput;
+import org.jacoco.core.internal.data.CompactDataOutput;
+
+/**
+ * Directory of {@link ClassStructure} instances keyed by the class id. As the
+ * id is a checksum of the class definition, a cached structure stays valid as
+ * long as the class file doesn't change. The cache is bounded by the total
+ * size of its files, the least recently used entries are removed first.
+ * Instances are thread safe.
+ */
+public class StructureCache implements IStructureCache {
+
+    private static final int FORMAT = 0x4A430001;
+
+    private static final String SUFFIX = ".struct";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final long TEMP_MAX_AGE = 60 * 60 * 1000;
+
+    private final File directory;
+
+    private final long maxBytes;
+
+    private final AtomicLong size = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final Object evictionLock = new Object();
+
+    private final Object[] locks = new Object[64];
+
+    /**
+     * Opens or creates a cache.
+     *
+     * @param directory
+     *            directory that holds the cache entries
+     * @param maxBytes
+     *            upper bound of the total size of all entries
+     * @throws IOException
+     *             if the directory can't be created
+     */
+    public StructureCache(final File directory, final long maxBytes)
+            throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        Files.createDirectories(directory.toPath());
+        for (final File entry : entries()) {
+            size.addAndGet(entry.length());
+        }
+        // left behind by processes that ended while writing an entry
+        final File[] temps = directory.listFiles(
+                (dir, name) -> name.endsWith(TEMP_SUFFIX));
+        if (temps != null) {
+            final long outdated = System.currentTimeMillis() - TEMP_MAX_AGE;
+            for (final File temp : temps) {
+                if (temp.lastModified() < outdated) {
+                    temp.delete();
+                }
+            }
+        }
+    }
+
+    @Override
+    public ClassStructure get(final long classid,
+            final StringPool stringPool) {
+        final File entry = file(classid);
+        if (!entry.isFile()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        try (InputStream input = new BufferedInputStream(new FileInputStream(entry))) {
+            final CompactDataInput in = new CompactDataInput(input);
+            if (in.readInt() != FORMAT) {
+                throw new IOException("Unknown format of " + entry);
+            }
+            final ClassStructure structure = ClassStructure.read(in, stringPool);
+            if (structure.getId() != classid) {
+                throw new IOException("Unexpected class in " + entry);
+            }
+            entry.setLastModified(System.currentTimeMillis());
+            hits.incrementAndGet();
+            return structure;
+        } catch (IOException e) {
+            // damaged or outdated entries are simply analyzed again
+            remove(entry);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Errors while writing are ignored as the cache only saves work. As the
+     * id is a checksum of the class, an existing entry is kept.
+     */
+    @Override
+    public void put(final ClassStructure structure) {
+        final File entry = file(structure.getId());
+        if (entry.isFile()) {
+            return;
+        }
+        File temp = null;
+        try {
+            temp = File.createTempFile("entry", TEMP_SUFFIX, directory);
+            try (OutputStream output = new BufferedOutputStream(new FileOutputStream(temp))) {
+                final CompactDataOutput out = new CompactDataOutput(output);
+                out.writeInt(FORMAT);
+                structure.write(out);
+            }
+            final long length = temp.length();
+            // only the thread that adds the entry counts its size
+            synchronized (lock(structure.getId())) {
+                if (entry.exists()) {
+                    return;
+                }
+                Files.move(temp.toPath(), entry.toPath());
+                temp = null;
+                size.addAndGet(length);
+            }
+            if (size.get() > maxBytes) {
+                evict();
+            }
+        } catch (IOException ignored) {
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    private Object lock(final long classid) {
+        return locks[(int) (classid & (locks.length - 1))];
+    }
+
+    /**
+     * Removes the least recently used entries until the cache is 10% below its
+     * size limit.
+     */
+    private void evict() {
+        synchronized (evictionLock) {
+            if (size.get() <= maxBytes) {
+                return;
+            }
+            final File[] entries = entries();
+            final long[] lastModified = new long[entries.length];
+            final Integer[] order = new Integer[entries.length];
+            for (int i = 0; i < entries.length; i++) {
+                lastModified[i] = entries[i].lastModified();
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingLong(i -> lastModified[i]));
+            final long target = maxBytes - maxBytes / 10;
+            for (int i = 0; i < order.length && size.get() > target; i++) {
+                remove(entries[order[i]]);
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private void remove(final File entry) {
+        final long length = entry.length();
+        if (entry.delete()) {
+            size.addAndGet(-length);
+        }
+    }
+
+    private File[] entries() {
+        final File[] entries = directory.listFiles(
+                (dir, name) -> name.endsWith(SUFFIX));
+        return entries == null ? new File[0] : entries;
+    }
+
+    private File file(final long classid) {
+        return new File(directory, String.format("%016x", classid) + SUFFIX);
+    }
+
+    /**
+     * @return number of lookups that found a structure
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of lookups that didn't find a structure
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of entries removed to stay within the size limit
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return current total size of all entries in bytes
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    @Override
+    public String toString() {
+        return getHits() + " hits, " + getMisses() + " misses, "
+                + getEvictions() + " evictions, " + getSize() / 1024 + " KB";
+    }
+}
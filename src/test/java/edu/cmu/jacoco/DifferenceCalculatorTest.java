@@ -0,0 +1,250 @@
+package edu.cmu.jacoco;
+
+import edu.cmu.jacoco.async.Analyzer;
+import edu.cmu.jacoco.async.ClassStructure;
+import edu.cmu.jacoco.async.ClassStructureAnalyzer;
+import edu.cmu.jacoco.async.CoverageBuilder;
+import edu.cmu.jacoco.async.ILinesVisitor;
+import edu.cmu.jacoco.async.StringPool;
+import org.jacoco.core.analysis.IBundleCoverage;
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.analysis.IMethodCoverage;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.SessionInfoStore;
+import org.jacoco.core.instr.Instrumenter;
+import org.jacoco.core.internal.Java9Support;
+import org.jacoco.core.internal.data.CRC64;
+import org.jacoco.core.internal.flow.ClassProbesAdapter;
+import org.jacoco.core.runtime.IRuntime;
+import org.jacoco.core.runtime.LoggerRuntime;
+import org.jacoco.core.runtime.RuntimeData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.LongPredicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs an instrumented class in two suites and checks which of its lines are reported, with the class filter of
+ * {@link ProbeComparator} applied to the analysis and to the comparison, in both analysis modes. The filter relies on
+ * classes whose probes are all hit having no partly covered line, which is checked on the classes of JaCoCo.
+ */
+public class DifferenceCalculatorTest {
+
+    /**
+     * The class the suites run, the branch of {@link #choose(boolean)} is on a single line.
+     */
+    public static class Target {
+
+        public static int choose(boolean first) {
+            return first ? 1 : 2;
+        }
+
+        public static int other() {
+            return 3;
+        }
+    }
+
+    private byte[] definition;
+    private long classId;
+    private IRuntime runtime;
+    private RuntimeData data;
+    private Class<?> target;
+
+    @Before
+    public void setUp() throws Exception {
+        String resource = "/" + Target.class.getName().replace('.', '/') + ".class";
+        try (InputStream input = Target.class.getResourceAsStream(resource)) {
+            definition = Java9Support.readFully(input);
+        }
+        classId = CRC64.checksum(definition);
+
+        runtime = new LoggerRuntime();
+        byte[] instrumented = new Instrumenter(runtime).instrument(definition, Target.class.getName());
+        data = new RuntimeData();
+        runtime.startup(data);
+        target = new ClassLoader(getClass().getClassLoader()) {
+            Class<?> define() {
+                return defineClass(Target.class.getName(), instrumented, 0, instrumented.length);
+            }
+        }.define();
+    }
+
+    @After
+    public void tearDown() {
+        runtime.shutdown();
+    }
+
+    @Test
+    public void linesPartlyCoveredThroughDifferentBranchesAreReported() throws Exception {
+        ExecutionDataStore base = run(true);
+        ExecutionDataStore candidate = run(false);
+
+        assertChooseReported(base, candidate);
+    }
+
+    @Test
+    public void linesPartlyCoveredByBothSuitesAreReportedWhenTheCandidateHitsMoreProbes() throws Exception {
+        ExecutionDataStore base = run(true);
+        target.getMethod("other").invoke(null);
+        ExecutionDataStore candidate = run(true);
+
+        ProbeComparator.Comparison comparison = new ProbeComparator().compare(base, candidate);
+        assertEquals(1, comparison.count(ProbeComparator.Result.CANDIDATE_SUPERSET));
+        assertChooseReported(base, candidate);
+    }
+
+    @Test
+    public void classesBothSuitesCoverCompletelyAreSkipped() throws Exception {
+        ExecutionDataStore base = runAll();
+        ExecutionDataStore candidate = runAll();
+
+        assertFalse(new ProbeComparator().compare(base, candidate).mayDiffer(classId));
+        // nothing is lost by skipping the class
+        assertTrue(differences(analyze(base, candidate, id -> true), id -> true).isEmpty());
+    }
+
+    @Test
+    public void linesOfClassesWithEveryProbeHitAreNotPartlyCovered() throws IOException {
+        int classes = 0;
+        try (ZipFile archive = new ZipFile(new File(Instrumenter.class.getProtectionDomain().getCodeSource()
+                .getLocation().getPath()))) {
+            for (ZipEntry entry : Collections.list(archive.entries())) {
+                if (!entry.getName().endsWith(".class")) {
+                    continue;
+                }
+                byte[] bytes;
+                try (InputStream input = archive.getInputStream(entry)) {
+                    bytes = Java9Support.readFully(input);
+                }
+                ClassReader reader = new ClassReader(bytes);
+                ClassStructureAnalyzer analyzer = new ClassStructureAnalyzer(
+                        CRC64.checksum(bytes), reader.getClassName(), new StringPool());
+                reader.accept(new ClassProbesAdapter(analyzer, false), 0);
+                ClassStructure structure = analyzer.getStructure();
+
+                boolean[] probes = new boolean[structure.getProbeCount()];
+                Arrays.fill(probes, true);
+                int[] statuses = structure.getLineStatuses(probes);
+                for (int i = 0; statuses != null && i < statuses.length; i++) {
+                    assertTrue(entry.getName() + ":" + (structure.getFirstLine() + i),
+                            statuses[i] == ICounter.EMPTY || statuses[i] == ICounter.FULLY_COVERED);
+                }
+                classes++;
+            }
+        }
+        assertTrue(classes > 100);
+    }
+
+    private void assertChooseReported(ExecutionDataStore base, ExecutionDataStore candidate) throws IOException {
+        ProbeComparator.Comparison comparison = new ProbeComparator().compare(base, candidate);
+        assertTrue(comparison.mayDiffer(classId));
+
+        IBundleCoverage[] bundles = analyze(base, candidate, comparison::mayDiffer);
+        int line = getChooseLine(bundles[0]);
+        assertEquals(ICounter.PARTLY_COVERED, getClass(bundles[0]).getLine(line).getStatus());
+        assertEquals(ICounter.PARTLY_COVERED, getClass(bundles[1]).getLine(line).getStatus());
+
+        List<ClassDifference> differences = differences(bundles, comparison::mayDiffer);
+        assertReported(differences, line);
+
+        LineCoverage[] lines = analyzeLines(base, candidate, comparison::mayDiffer);
+        List<ClassDifference> lineDifferences = new ArrayList<>();
+        new DifferenceCalculator().calculate(lines[0], lines[1], comparison::mayDiffer, lineDifferences::add);
+        assertReported(lineDifferences, line);
+    }
+
+    private static void assertReported(List<ClassDifference> differences, int line) {
+        assertEquals(1, differences.size());
+        ClassDifference difference = differences.get(0);
+        assertEquals("DifferenceCalculatorTest$Target", difference.getClassName());
+        for (int i = 0; i < difference.getLineCount(); i++) {
+            if (difference.getLine(i) == line) {
+                assertEquals(ICounter.PARTLY_COVERED, difference.getStatus(i));
+                return;
+            }
+        }
+        throw new AssertionError("Line " + line + " is not reported");
+    }
+
+    /**
+     * Calls {@link Target#choose(boolean)} and returns the execution data of the suite, which starts over afterwards.
+     */
+    private ExecutionDataStore run(boolean first) throws Exception {
+        target.getMethod("choose", boolean.class).invoke(null, first);
+        ExecutionDataStore collected = new ExecutionDataStore();
+        data.collect(collected, new SessionInfoStore(), false);
+        // the collected data is the one the runtime resets
+        ExecutionDataStore store = new ExecutionDataStore();
+        for (ExecutionData execution : collected.getContents()) {
+            store.put(new ExecutionData(execution.getId(), execution.getName(), execution.getProbes().clone()));
+        }
+        data.reset();
+        return store;
+    }
+
+    /**
+     * Runs every method and constructor of {@link Target}.
+     */
+    private ExecutionDataStore runAll() throws Exception {
+        target.getConstructor().newInstance();
+        target.getMethod("other").invoke(null);
+        target.getMethod("choose", boolean.class).invoke(null, false);
+        return run(true);
+    }
+
+    private IBundleCoverage[] analyze(ExecutionDataStore base, ExecutionDataStore candidate,
+                                      LongPredicate classFilter) throws IOException {
+        CoverageBuilder[] builders = {new CoverageBuilder(), new CoverageBuilder()};
+        Analyzer analyzer = new Analyzer(new ExecutionDataStore[]{base, candidate}, builders);
+        analyzer.setClassFilter(classFilter);
+        analyzer.analyzeClass(definition, Target.class.getName());
+        return new IBundleCoverage[]{builders[0].getBundle("base"), builders[1].getBundle("candidate")};
+    }
+
+    private LineCoverage[] analyzeLines(ExecutionDataStore base, ExecutionDataStore candidate,
+                                        LongPredicate classFilter) throws IOException {
+        LineCoverage[] lines = {new LineCoverage(), new LineCoverage()};
+        ILinesVisitor[] visitors = {lines[0]::addClass, lines[1]::addClass};
+        Analyzer analyzer = new Analyzer(new ExecutionDataStore[]{base, candidate}, visitors);
+        analyzer.setClassFilter(classFilter);
+        analyzer.analyzeClass(definition, Target.class.getName());
+        return lines;
+    }
+
+    private static List<ClassDifference> differences(IBundleCoverage[] bundles,
+                                                     LongPredicate classFilter) {
+        List<ClassDifference> differences = new ArrayList<>();
+        new DifferenceCalculator().calculate(bundles[0], bundles[1], classFilter, differences::add);
+        return differences;
+    }
+
+    private static IClassCoverage getClass(IBundleCoverage bundle) {
+        return bundle.getPackages().iterator().next().getClasses().iterator().next();
+    }
+
+    private static int getChooseLine(IBundleCoverage bundle) {
+        for (IMethodCoverage method : getClass(bundle).getMethods()) {
+            if (method.getName().equals("choose")) {
+                return method.getFirstLine();
+            }
+        }
+        throw new AssertionError("No method choose");
+    }
+}
@@ -0,0 +1,284 @@
+package edu.cmu.jacoco.async;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.analysis.ILine;
+import org.jacoco.core.analysis.IMethodCoverage;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.internal.Java9Support;
+import org.jacoco.core.internal.data.CRC64;
+import org.jacoco.core.internal.data.CompactDataInput;
+import org.jacoco.core.internal.data.CompactDataOutput;
+import org.jacoco.core.internal.flow.ClassProbesAdapter;
+import org.jacoco.core.internal.flow.ClassProbesVisitor;
+import org.jacoco.core.internal.flow.MethodProbesVisitor;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+
+/**
+ * Analyzes the classes of the test class path with
+ * {@link org.jacoco.core.analysis.Analyzer} and with the structures recorded
+ * by {@link ClassStructureAnalyzer}, for no execution data, every probe hit
+ * and random probes, and checks that the counters of every class, method and
+ * line and the line statuses are the same. The structures are also checked
+ * after a round trip through their binary form.
+ */
+public class ClassStructureTest {
+
+    private static final int PROBE_PATTERNS = 4;
+
+    @Test
+    public void structuresReportTheCoverageOfJaCoCo() throws Exception {
+        final Random random = new Random(1);
+        int classes = 0;
+        for (final File location : getLocations()) {
+            for (final byte[] definition : read(location)) {
+                check(definition, random);
+                classes++;
+            }
+        }
+        assertTrue(classes > 500);
+    }
+
+    private static void check(final byte[] buffer, final Random random)
+            throws IOException {
+        final byte[] definition = Java9Support.downgradeIfRequired(buffer);
+        final long id = CRC64.checksum(definition);
+        final ClassReader reader = new ClassReader(definition);
+        final String name = reader.getClassName();
+
+        final ExecutionDataStore[] stores = new ExecutionDataStore[PROBE_PATTERNS];
+        final int probeCount = getProbeCount(reader);
+        for (int i = 0; i < stores.length; i++) {
+            stores[i] = new ExecutionDataStore();
+            // the first store has no data for the class
+            if (i > 0 && probeCount > 0) {
+                final boolean[] probes = new boolean[probeCount];
+                for (int p = 0; p < probes.length; p++) {
+                    probes[p] = i == 1 || random.nextBoolean();
+                }
+                stores[i].put(new ExecutionData(id, name, probes));
+            }
+        }
+
+        final ClassStructureAnalyzer structureAnalyzer = new ClassStructureAnalyzer(
+                id, name, new StringPool());
+        reader.accept(new ClassProbesAdapter(structureAnalyzer, false), 0);
+        final ClassStructure structure = structureAnalyzer.getStructure();
+        assertEquals(name, probeCount, structure.getProbeCount());
+        final ClassStructure copy = copy(structure);
+
+        for (final ExecutionDataStore store : stores) {
+            final IClassCoverage expected = analyze(store, definition, name);
+            final boolean[] probes = store.get(id) == null ? null
+                    : store.get(id).getProbes();
+            assertCoverage(expected, structure.getCoverage(probes, false));
+            assertCoverage(expected, copy.getCoverage(probes, false));
+            assertLineStatuses(expected, structure.getLineStatuses(probes));
+        }
+    }
+
+    private static IClassCoverage analyze(final ExecutionDataStore store,
+            final byte[] definition, final String name) throws IOException {
+        final List<IClassCoverage> classes = new ArrayList<IClassCoverage>();
+        new org.jacoco.core.analysis.Analyzer(store, classes::add)
+                .analyzeClass(definition, name);
+        assertEquals(name, 1, classes.size());
+        return classes.get(0);
+    }
+
+    private static int getProbeCount(final ClassReader reader) {
+        final int[] count = new int[1];
+        reader.accept(new ClassProbesAdapter(new ClassProbesVisitor() {
+            @Override
+            public MethodProbesVisitor visitMethod(final int access,
+                    final String name, final String desc,
+                    final String signature, final String[] exceptions) {
+                return new MethodProbesVisitor() {
+                };
+            }
+
+            @Override
+            public void visitTotalProbeCount(final int total) {
+                count[0] = total;
+            }
+        }, false), 0);
+        return count[0];
+    }
+
+    private static ClassStructure copy(final ClassStructure structure)
+            throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        structure.write(new CompactDataOutput(buffer));
+        return ClassStructure.read(new CompactDataInput(
+                new ByteArrayInputStream(buffer.toByteArray())),
+                new StringPool());
+    }
+
+    private static void assertCoverage(final IClassCoverage expected,
+            final IClassCoverage actual) {
+        final String name = expected.getName();
+        assertEquals(name, expected.getName(), actual.getName());
+        assertEquals(name, expected.getId(), actual.getId());
+        assertEquals(name, expected.getSignature(), actual.getSignature());
+        assertEquals(name, expected.getSuperName(), actual.getSuperName());
+        assertArrayEquals(name, expected.getInterfaceNames(),
+                actual.getInterfaceNames());
+        assertEquals(name, expected.getSourceFileName(),
+                actual.getSourceFileName());
+        assertCounters(name, expected, actual);
+        assertLines(name, expected, actual);
+
+        final List<IMethodCoverage> expectedMethods = new ArrayList<IMethodCoverage>(
+                expected.getMethods());
+        final List<IMethodCoverage> actualMethods = new ArrayList<IMethodCoverage>(
+                actual.getMethods());
+        assertEquals(name, expectedMethods.size(), actualMethods.size());
+        for (int i = 0; i < expectedMethods.size(); i++) {
+            final IMethodCoverage method = expectedMethods.get(i);
+            final String where = name + "." + method.getName()
+                    + method.getDesc();
+            assertEquals(where, method.getName(),
+                    actualMethods.get(i).getName());
+            assertEquals(where, method.getDesc(),
+                    actualMethods.get(i).getDesc());
+            assertEquals(where, method.getSignature(),
+                    actualMethods.get(i).getSignature());
+            assertCounters(where, method, actualMethods.get(i));
+            assertLines(where, method, actualMethods.get(i));
+        }
+    }
+
+    private static void assertCounters(final String where,
+            final org.jacoco.core.analysis.ICoverageNode expected,
+            final org.jacoco.core.analysis.ICoverageNode actual) {
+        assertCounter(where + " instructions",
+                expected.getInstructionCounter(),
+                actual.getInstructionCounter());
+        assertCounter(where + " branches", expected.getBranchCounter(),
+                actual.getBranchCounter());
+        assertCounter(where + " lines", expected.getLineCounter(),
+                actual.getLineCounter());
+        assertCounter(where + " complexity", expected.getComplexityCounter(),
+                actual.getComplexityCounter());
+        assertCounter(where + " methods", expected.getMethodCounter(),
+                actual.getMethodCounter());
+        assertCounter(where + " classes", expected.getClassCounter(),
+                actual.getClassCounter());
+    }
+
+    private static void assertLines(final String where,
+            final org.jacoco.core.analysis.ISourceNode expected,
+            final org.jacoco.core.analysis.ISourceNode actual) {
+        assertEquals(where, expected.getFirstLine(), actual.getFirstLine());
+        assertEquals(where, expected.getLastLine(), actual.getLastLine());
+        for (int line = expected.getFirstLine(); line <= expected
+                .getLastLine(); line++) {
+            final ILine expectedLine = expected.getLine(line);
+            final ILine actualLine = actual.getLine(line);
+            assertEquals(where + ":" + line, expectedLine.getStatus(),
+                    actualLine.getStatus());
+            assertCounter(where + ":" + line + " instructions",
+                    expectedLine.getInstructionCounter(),
+                    actualLine.getInstructionCounter());
+            assertCounter(where + ":" + line + " branches",
+                    expectedLine.getBranchCounter(),
+                    actualLine.getBranchCounter());
+        }
+    }
+
+    private static void assertLineStatuses(final IClassCoverage expected,
+            final int[] statuses) {
+        if (expected.getFirstLine() == -1) {
+            assertEquals(expected.getName(), null, statuses);
+            return;
+        }
+        assertNotNull(expected.getName(), statuses);
+        assertEquals(expected.getName(),
+                expected.getLastLine() - expected.getFirstLine() + 1,
+                statuses.length);
+        for (int i = 0; i < statuses.length; i++) {
+            final int line = expected.getFirstLine() + i;
+            assertEquals(expected.getName() + ":" + line,
+                    expected.getLine(line).getStatus(), statuses[i]);
+        }
+    }
+
+    private static void assertCounter(final String where,
+            final ICounter expected, final ICounter actual) {
+        assertEquals(where + " missed", expected.getMissedCount(),
+                actual.getMissedCount());
+        assertEquals(where + " covered", expected.getCoveredCount(),
+                actual.getCoveredCount());
+    }
+
+    /**
+     * @return the jars of JaCoCo, ASM, JUnit and the other libraries, and the
+     *         classes of the tool itself
+     */
+    private static List<File> getLocations() throws URISyntaxException {
+        final List<File> locations = new ArrayList<File>();
+        for (final Class<?> type : Arrays.asList(
+                org.jacoco.core.analysis.Analyzer.class, ClassReader.class,
+                Test.class,
+                org.apache.commons.cli.Options.class,
+                j2html.TagCreator.class, Analyzer.class)) {
+            final File location = new File(type.getProtectionDomain()
+                    .getCodeSource().getLocation().toURI());
+            if (!locations.contains(location)) {
+                locations.add(location);
+            }
+        }
+        return locations;
+    }
+
+    private static List<byte[]> read(final File location)
+            throws IOException {
+        final List<byte[]> definitions = new ArrayList<byte[]>();
+        if (location.isDirectory()) {
+            try (Stream<Path> paths = Files.walk(location.toPath())) {
+                for (final Path path : (Iterable<Path>) paths::iterator) {
+                    if (path.toString().endsWith(".class")) {
+                        definitions.add(Files.readAllBytes(path));
+                    }
+                }
+            }
+            return definitions;
+        }
+        try (ZipFile archive = new ZipFile(location)) {
+            for (final ZipEntry entry : Collections.list(archive.entries())) {
+                if (!entry.getName().endsWith(".class")
+                        || entry.getName().endsWith("module-info.class")) {
+                    continue;
+                }
+                try (InputStream input = archive.getInputStream(entry)) {
+                    definitions.add(Java9Support.readFully(input));
+                }
+            }
+        }
+        return definitions;
+    }
+}